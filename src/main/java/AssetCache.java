@@ -0,0 +1,393 @@
+/**
+ * @file AssetCache.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Cross-session cache of the application's static assets.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.List;
+import java.util.Locale;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.security.MessageDigest;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.remote.http.Filter;
+import org.openqa.selenium.remote.http.Contents;
+import org.openqa.selenium.remote.http.HttpMethod;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+
+/**
+ * @class AssetCache
+ * @brief Serve the application's static assets from a local cache shared by all sessions.
+
+ Only GET requests for static resources (scripts, style sheets, images and
+ fonts, by extension) to the origin of `app_url` whose response allows
+ shared caching (`Cache-Control` with `max-age` or `immutable`, neither
+ `no-store`, `no-cache` nor `private`, and no `Set-Cookie`) are stored.
+ Documents and API calls always reach the server, so the cookies of each
+ session keep applying to them. Bodies are kept on disk
+ under their SHA-256 (identical bodies are stored once), the index is
+ evicted LRU once `asset_cache_max_mb` is exceeded and persisted at the end
+ of the suite so later runs can reuse it.
+
+ A directory is owned by a single JVM at a time (lock file held until
+ close()); each shard uses its own `shard-N` subdirectory, and a JVM which
+ finds the directory locked runs without cache.
+*/
+public final class AssetCache {
+  private static final String[] SKIPPED_HEADERS = { "content-encoding", "content-length", "transfer-encoding", "date", "set-cookie" };
+  private static final String[] STATIC_EXTENSIONS = { ".js", ".mjs", ".css", ".png", ".jpg", ".jpeg", ".gif", ".webp", ".svg", ".ico", ".woff", ".woff2", ".ttf", ".otf", ".eot" };
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder misses = new LongAdder();
+  private static final LongAdder saved = new LongAdder();
+  private static Map<String, Entry> index;
+  private static Map<String, Integer> blobs;
+  private static long size;
+  private static String origin;
+  private static Path root;
+  private static FileChannel lock;
+
+  /**
+   * @brief Cached response of a single URL.
+   */
+  private static final class Entry {
+    private final String hash;
+    private final long length;
+    private final long expires;
+    private final int status;
+    private final List<List<String>> headers;
+
+    private Entry(String hash, long length, long expires, int status, List<List<String>> headers) {
+      this.hash = hash;
+      this.length = length;
+      this.expires = expires;
+      this.status = status;
+      this.headers = headers;
+    }
+
+    private Map<String, Object> toMap() {
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put("hash", hash);
+      m.put("length", length);
+      m.put("expires", expires);
+      m.put("status", status);
+      m.put("headers", headers);
+      return m;
+    }
+  }
+
+  /**
+   * @brief Take ownership of the cache directory.
+   * @return True if owned by this JVM, false if locked by another one.
+   */
+  private static boolean lock() {
+    root = Paths.get(ConfigParameters.asset_cache_dir);
+    if (ConfigParameters.isSharded()) root = root.resolve(String.format("shard-%d", ConfigParameters.getShardIndex()));
+    try {
+      Files.createDirectories(root);
+      lock = FileChannel.open(root.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      if (lock.tryLock() != null) return true;
+      lock.close();
+    }
+    catch (IOException e) {}
+    lock = null;
+    String warn = String.format("[WARNING] AssetCache :: `%s` is locked (or not writable) by another run; asset cache disabled", root);
+    BaseTest.log.warn(warn);
+    System.out.println(warn);
+    return false;
+  }
+
+  /**
+   * @brief Load the persisted index (once per suite).
+   */
+  @SuppressWarnings("unchecked")
+  private static synchronized void load() {
+    if (index != null) return;
+    index = new LinkedHashMap<>(256, 0.75f, true);
+    blobs = new HashMap<>();
+    URI app = URI.create(ConfigParameters.app_url);
+    origin = String.format("%s://%s", app.getScheme(), app.getRawAuthority()).toLowerCase(Locale.ROOT);
+    if (!lock()) return;
+    Path file = root.resolve("index.json");
+    if (!Files.exists(file)) return;
+    try {
+      Map<String, Object> raw = new Json().toType(Files.readString(file), Json.MAP_TYPE);
+      long now = System.currentTimeMillis();
+      for (Map.Entry<String, Object> e : raw.entrySet()) {
+        Map<String, Object> m = (Map<String, Object>) e.getValue();
+        Entry entry = new Entry((String) m.get("hash"), ((Number) m.get("length")).longValue(),
+                                ((Number) m.get("expires")).longValue(), ((Number) m.get("status")).intValue(),
+                                (List<List<String>>) m.get("headers"));
+        if (entry.expires > now && Files.exists(blob(entry.hash))) put(e.getKey(), entry);
+      }
+    }
+    catch (Exception e) {
+      String warn = String.format("[WARNING] AssetCache.load :: could not read `%s`; starting with an empty cache", file);
+      BaseTest.log.warn(warn);
+      System.out.println(warn);
+    }
+  }
+
+  /**
+   * @brief Path of a cached body.
+   * @param hash SHA-256 of the body.
+   * @return Path object.
+   */
+  private static Path blob(String hash) {
+    return root.resolve(Paths.get("blobs", hash.substring(0, 2), hash));
+  }
+
+  /**
+   * @brief Compute the SHA-256 of a body.
+   * @param body Body of the response.
+   * @return Hexadecimal digest.
+   */
+  private static String sha256(byte[] body) {
+    try {
+      StringBuilder sb = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(body)) sb.append(String.format("%02x", b));
+      return sb.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @brief Check whether a request may be served from (or stored in) the cache.
+   * @param req Request of the browser.
+   * @return True if cacheable, false otherwise.
+   */
+  private static boolean isCandidate(HttpRequest req) {
+    if (req.getMethod() != HttpMethod.GET || req.getHeader("Authorization") != null) return false;
+    String cc = req.getHeader("Cache-Control");
+    if (cc != null && cc.toLowerCase(Locale.ROOT).contains("no-cache")) return false;
+    String url = req.getUri().toLowerCase(Locale.ROOT);
+    if (!url.startsWith(origin) || url.length() == origin.length() || url.charAt(origin.length()) != '/') return false;
+    return isStatic(url);
+  }
+
+  /**
+   * @brief Check whether a URL points to a static resource (script, style sheet, image or font).
+   * @param url URL in lower case.
+   * @return True if static, false otherwise.
+   */
+  private static boolean isStatic(String url) {
+    int end = url.length();
+    for (char c : new char[] { '?', '#' }) {
+      int i = url.indexOf(c);
+      if (i != -1 && i < end) end = i;
+    }
+    String path = url.substring(0, end);
+    for (String ext : STATIC_EXTENSIONS) {
+      if (path.endsWith(ext)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @brief Freshness lifetime granted by the response headers.
+   * @param res Response of the server.
+   * @return Expiration time (epoch ms), or -1 if not cacheable.
+   */
+  private static long expires(HttpResponse res) {
+    if (res.getStatus() != 200 || res.getHeader("Set-Cookie") != null) return -1;
+    String vary = res.getHeader("Vary");
+    if (vary != null && !vary.trim().equalsIgnoreCase("Accept-Encoding")) return -1;
+    String cc = res.getHeader("Cache-Control");
+    if (cc == null) return -1;
+    long maxAge = -1;
+    boolean immutable = false;
+    for (String directive : cc.toLowerCase(Locale.ROOT).split(",")) {
+      directive = directive.trim();
+      if (directive.equals("no-store") || directive.equals("no-cache") || directive.equals("private")) return -1;
+      if (directive.equals("immutable")) immutable = true;
+      else if (directive.startsWith("s-maxage=") || directive.startsWith("max-age=")) {
+        try {
+          long value = Long.parseLong(directive.substring(directive.indexOf('=') + 1));
+          maxAge = directive.startsWith("s-maxage=") || maxAge < 0 ? value : maxAge;
+        }
+        catch (NumberFormatException e) {}
+      }
+    }
+    if (maxAge > 0) return System.currentTimeMillis() + maxAge * 1000;
+    return immutable ? Long.MAX_VALUE : -1;
+  }
+
+  /**
+   * @brief Add an entry to the index and evict the least recently used ones if needed.
+   * @param url URL of the asset.
+   * @param entry Entry object.
+   */
+  private static synchronized void put(String url, Entry entry) {
+    // Reference the new body before releasing the old one, which may be the same
+    if (blobs.merge(entry.hash, 1, Integer::sum) == 1) size += entry.length;
+    remove(index.put(url, entry));
+    long max = ConfigParameters.asset_cache_max_mb * 1024L * 1024L;
+    Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+    while (size > max && it.hasNext()) {
+      Map.Entry<String, Entry> eldest = it.next();
+      if (eldest.getValue() == entry) continue;
+      it.remove();
+      remove(eldest.getValue());
+    }
+  }
+
+  /**
+   * @brief Release the body of an entry removed from the index (deleted if no longer referenced).
+   * @param entry Entry object (ignored if null).
+   */
+  private static synchronized void remove(Entry entry) {
+    if (entry == null) return;
+    if (blobs.merge(entry.hash, -1, Integer::sum) > 0) return;
+    blobs.remove(entry.hash);
+    size -= entry.length;
+    try { Files.deleteIfExists(blob(entry.hash)); }
+    catch (IOException e) {}
+  }
+
+  /**
+   * @brief Obtain a fresh entry.
+   * @param url URL of the asset.
+   * @return Entry object, or null if not cached (or expired).
+   */
+  private static synchronized Entry get(String url) {
+    Entry entry = index.get(url);
+    if (entry == null || entry.expires > System.currentTimeMillis()) return entry;
+    index.remove(url);
+    remove(entry);
+    return null;
+  }
+
+  /**
+   * @brief Serve a request from the cache.
+   * @param entry Entry object.
+   * @return HttpResponse object, or null if the body is not available.
+   */
+  private static HttpResponse serve(Entry entry) {
+    byte[] body;
+    try { body = Files.readAllBytes(blob(entry.hash)); }
+    catch (IOException e) { return null; }
+    HttpResponse res = new HttpResponse().setStatus(entry.status);
+    for (List<String> h : entry.headers) res.addHeader(h.get(0), h.get(1));
+    res.setHeader("Content-Length", String.valueOf(body.length));
+    return res.setContent(Contents.bytes(body));
+  }
+
+  /**
+   * @brief Store a response in the cache (if allowed by its headers).
+   * @param url URL of the asset.
+   * @param res Response of the server.
+   */
+  private static void store(String url, HttpResponse res) {
+    long expires = expires(res);
+    if (expires < 0) return;
+    byte[] body = Contents.bytes(res.getContent());
+    res.setContent(Contents.bytes(body));
+    String hash = sha256(body);
+    List<List<String>> headers = new ArrayList<>();
+    for (String name : res.getHeaderNames()) {
+      boolean skipped = false;
+      for (String s : SKIPPED_HEADERS) skipped |= s.equalsIgnoreCase(name);
+      if (skipped) continue;
+      for (String value : res.getHeaders(name)) headers.add(List.of(name, value));
+    }
+    Path file = blob(hash);
+    try {
+      if (!Files.exists(file)) {
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), hash, ".tmp");
+        Files.write(tmp, body);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+    }
+    catch (IOException e) {
+      String warn = String.format("[WARNING] AssetCache.store :: could not write `%s`", file);
+      BaseTest.log.warn(warn);
+      System.out.println(warn);
+      return;
+    }
+    put(url, new Entry(hash, body.length, expires, res.getStatus(), headers));
+  }
+
+  /**
+   * @brief Create the network filter which serves and stores the application's static assets.
+   * @return Filter object to be installed via BrowserEvents.
+   */
+  protected static Filter filter() {
+    load();
+    if (lock == null) return next -> next;
+    return next -> req -> {
+      if (!isCandidate(req)) return next.execute(req);
+      String url = req.getUri();
+      Entry entry = get(url);
+      if (entry != null) {
+        HttpResponse res = serve(entry);
+        if (res != null) {
+          hits.increment();
+          saved.add(entry.length);
+          return res;
+        }
+      }
+      misses.increment();
+      HttpResponse res = next.execute(req);
+      store(url, res);
+      return res;
+    };
+  }
+
+  /**
+   * @brief Obtain the suite-level cache statistics.
+   * @return Entry names and their formatted values.
+   */
+  protected static Map<String, String> summary() {
+    Map<String, String> stats = new LinkedHashMap<>();
+    long h = hits.sum(), m = misses.sum();
+    stats.put("Asset cache", String.format("%d hits, %d misses (%.1f%%), %.1f MB saved",
+                                          h, m, h + m == 0 ? 0 : 100.0 * h / (h + m), saved.sum() / 1048576.0));
+    return stats;
+  }
+
+  /**
+   * @brief Persist the index for later runs and release the cache directory.
+   */
+  protected static synchronized void close() {
+    if (lock == null) return;
+    Map<String, Object> raw = new LinkedHashMap<>();
+    index.forEach((url, entry) -> raw.put(url, entry.toMap()));
+    Path file = root.resolve("index.json");
+    try {
+      Path tmp = Files.createTempFile(root, "index", ".tmp");
+      Files.writeString(tmp, new Json().toJson(raw));
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e) {
+      String err = String.format("[ERROR] Could not write asset cache index to `%s`", file);
+      System.err.println(err);
+      BaseTest.log.error(err);
+    }
+    try { lock.close(); }
+    catch (IOException e) {}
+    lock = null;
+    System.out.printf("[INFO] %s%n", summary().get("Asset cache"));
+  }
+}
@@ -11,11 +11,19 @@
 package cat.gencat.mat;
 
 import java.net.URL;
+import java.util.Map;
 import java.io.IOException;
+import org.testng.Reporter;
 import java.lang.reflect.Method;
+import org.testng.IHookable;
+import org.testng.ITestResult;
+import org.testng.ITestContext;
+import org.testng.IHookCallBack;
+import org.testng.SkipException;
 import org.openqa.selenium.WebDriver;
 import java.net.MalformedURLException;
 import org.apache.logging.log4j.Logger;
+import org.testng.annotations.Optional;
 import org.testng.annotations.Parameters;
 import org.testng.annotations.AfterSuite;
 import org.testng.annotations.AfterClass;
@@ -28,15 +36,20 @@ import org.openqa.selenium.TakesScreenshot;
 import com.aventstack.extentreports.ExtentTest;
 import com.aventstack.extentreports.ExtentReports;
 import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+import com.gargoylesoftware.htmlunit.BrowserVersion;
 
 /**
  * @class BaseTest
  * @brief Generic test case which abstracts away init and shutdown phases.
  */
-public class BaseTest {
+public class BaseTest implements IHookable {
   protected static Logger log = LogManager.getLogger(BaseTest.class);
   private static ThreadLocal<TakesScreenshot> ts = new ThreadLocal<>();
-  private static ThreadLocal<RemoteWebDriver> driver = new ThreadLocal<>();
+  private static ThreadLocal<WebDriver> driver = new ThreadLocal<>();
+  private static ThreadLocal<String> browser = new ThreadLocal<>();
+  private static ThreadLocal<ITestResult> result = new ThreadLocal<>();
+  private static ThreadLocal<ITestContext> context = new ThreadLocal<>();
 
   /**
    * @brief Initialize the test suite.
@@ -47,40 +60,149 @@ public class BaseTest {
     log.info("Testing suite execution started");
     ConfigParameters.setup();
     ExtentManager.setup();
+    EventBus.start(ConfigParameters.event_queue_size);
+    EventBus.publish(Event.suiteStart());
+    if (ConfigParameters.metrics_port > 0) LiveMetrics.start(ConfigParameters.metrics_port);
     System.out.println("[INFO] -------------------------------------------------------");
   }
 
   /**
    * @brief Setup process for a specific test case.
-   * @param browser Name of the browser to run the test case on.
+   * @param name Name of the browser to run the test case on (overridden in fan-out mode).
    * @param method Method that implements the test case.
+   * @param r Result of the test case about to run.
    */
   @BeforeMethod
   @Parameters(value={"browser"})
+  public void testInit(@Optional("chrome") String name, Method method, ITestResult r) {
+    result.set(r);
+    String browser = BrowserFanOut.nextBrowser(r, name);
+    r.setAttribute("browser", browser);
+    testInit(browser, method);
+  }
+
+  /**
+   * @brief Create the web driver of a specific test case.
+
+   Original entrypoint, still called by testInit(String, Method, ITestResult)
+   so subclasses overriding (or calling) it keep working. Does nothing if the
+   current thread already has a web driver.
+   * @param browser Name of the browser to run the test case on.
+   * @param method Method that implements the test case.
+   */
   public void testInit(String browser, Method method) {
-    setDriver(createRWD(browser));
-    setTS(getDriver());
+    if (getWebDriver() != null) return;
+    ITestResult r = result.get();
+    setBrowser(browser);
+    if (isInProcess(browser) && requiresRealBrowser(method)) {
+      // Skipped by run(), no need for a driver
+      long id = ExtentManager.addTest(testName(method, r), browser);
+      if (r != null) r.setAttribute("test_id", id);
+      return;
+    }
+    long t0 = System.nanoTime();
+    boolean shared = ConfigParameters.tabs_per_session > 1 && !isInProcess(browser);
+    setDriver(shared ? SessionPool.acquire(browser, ConfigParameters.tabs_per_session) : createDriver(browser));
+    long session = System.nanoTime() - t0;
+    if (r != null) r.setAttribute("session", session);
+    LiveMetrics.sessionAcquired(session);
+    // Shared sessions are accounted for by SessionPool
+    if (!shared) LiveMetrics.sessionCreated(session);
+    if (getWebDriver() instanceof TakesScreenshot) setTS((TakesScreenshot) getWebDriver());
     log.info(String.format("Browser driver created: %s", browser));
-    ExtentManager.addTest(method.getName(), browser);
+    long id = ExtentManager.addTest(testName(method, r), browser);
+    if (r != null) r.setAttribute("test_id", id);
+    if (ConfigParameters.forensics) Forensics.start();
+    BrowserEvents.attach(getWebDriver());
+  }
+
+  /**
+   * @brief Run the test case, unless it requires a real browser and runs in-process.
+
+   Skipping here (instead of in testInit) only affects the current
+   invocation; configuration skips would cascade to the rest of the class.
+   * @param callBack Callback which runs the test method.
+   * @param r Result of the test case about to run.
+   */
+  @Override
+  public void run(IHookCallBack callBack, ITestResult r) {
+    Method method = r.getMethod().getConstructorOrMethod().getMethod();
+    if (isInProcess(getBrowser()) && requiresRealBrowser(method)) {
+      throw new SkipException(String.format("%s requires a real browser (%s)", method.getName(), getBrowser()));
+    }
+    callBack.runTestMethod(r);
   }
 
   /**
    * @brief Shutdown the web driver.
+   * @param r Result of the test case just run.
    */
   @AfterMethod
+  public void testQuit(ITestResult r) {
+    result.set(r);
+    testQuit();
+  }
+
+  /**
+   * @brief Shutdown the web driver and close the test case's report entry.
+
+   Original entrypoint, still called by testQuit(ITestResult) so subclasses
+   overriding (or calling) it keep working.
+   */
   public void testQuit() {
-    getDriver().quit();
-    log.info("Quitted driver successfully");
+    ITestResult r = result.get();
+    result.remove();
+    long t0 = System.nanoTime();
+    if (getWebDriver() != null) {
+      BrowserEvents.detach();
+      if (ConfigParameters.fast) {
+        long blocked = FastMode.blocked();
+        ExtentManager.logTest(Utils.LogLevel.INFO, String.format("Fast mode :: %d requests blocked", blocked));
+        log.info(String.format("Fast mode blocked requests: %d", blocked));
+      }
+      PageMetrics.reset();
+      if (SessionPool.isShared(getWebDriver())) SessionPool.release(getWebDriver());
+      else {
+        getWebDriver().quit();
+        LiveMetrics.sessionQuitted();
+      }
+      deleteDriver();
+      deleteTS();
+      log.info("Quitted driver successfully");
+    }
+    ExtentManager.endTest();
+    // Already torn down (i.e. annotated override calling super)
+    if (r == null) return;
+    for (Object p : r.getParameters()) if (p instanceof DataRow) ((DataRow) p).release();
+    long teardown = System.nanoTime() - t0;
+    LiveMetrics.teardown(teardown);
+    ExecutionListener.testEnded(r, teardown);
   }
 
   /**
    * @brief Clean up all resources related to the test case.
+   * @param ctx ITestContext object of the test case.
    */
   @AfterClass
+  public void testShutdown(ITestContext ctx) {
+    context.set(ctx);
+    testShutdown();
+  }
+
+  /**
+   * @brief Clean up all resources related to the test class and flush its report entries.
+
+   Original entrypoint, still called by testShutdown(ITestContext) so
+   subclasses overriding (or calling) it keep working.
+   */
   public void testShutdown() {
+    ITestContext ctx = context.get();
+    context.remove();
+    if (ctx == null && Reporter.getCurrentTestResult() != null) ctx = Reporter.getCurrentTestResult().getTestContext();
     deleteTS();
     deleteDriver();
-    ExtentManager.flush();
+    deleteBrowser();
+    ExtentManager.flush(ctx);
   }
 
   /**
@@ -89,8 +211,21 @@ public class BaseTest {
   @AfterSuite
   public void suiteShutdown() {
     log.info("Testing suite execution ended");
+    EventBus.flush();
+    Map<String, String> info = LiveMetrics.breakdown();
+    if (ConfigParameters.asset_cache) {
+      AssetCache.close();
+      info.putAll(AssetCache.summary());
+    }
+    EventBus.publish(Event.suiteEnd(info));
+    EventBus.close();
+    SessionPool.shutdown();
+    LiveMetrics.stop();
     System.out.println("[INFO] -------------------------------------------------------");
     System.out.println("[INFO] Report written to: `target/report/index.html`");
+    if (ConfigParameters.isSharded()) {
+      System.out.printf("[INFO] Shard report written to: `target/report/shard-%d.json`%n", ConfigParameters.getShardIndex());
+    }
   }
 
   /**
@@ -111,12 +246,46 @@ public class BaseTest {
     }
   }
 
+  /**
+   * @brief Check whether a browser runs in-process (without Selenium Grid).
+   * @param browser Name of the browser.
+   * @return True if in-process, false otherwise.
+   */
+  protected static boolean isInProcess(String browser) {
+    return "htmlunit".equals(browser);
+  }
+
+  /**
+   * @brief Check whether a test method requires a real browser (@RealBrowser).
+   * @param method Method which implements the test case.
+   * @return True if the method or its class is annotated, false otherwise.
+   */
+  private static boolean requiresRealBrowser(Method method) {
+    return method.isAnnotationPresent(RealBrowser.class) ||
+      method.getDeclaringClass().isAnnotationPresent(RealBrowser.class);
+  }
+
+  /**
+   * @brief Name of the test case entry in the report.
+   * @param method Method that implements the test case.
+   * @param r Result of the test case about to run (may be null).
+   * @return Method name, plus the row key for DataSource driven invocations.
+   */
+  private static String testName(Method method, ITestResult r) {
+    Object[] params = r == null ? null : r.getParameters();
+    if (params != null && params.length > 0 && params[0] instanceof DataRow) {
+      return String.format("%s [%s]", method.getName(), ((DataRow) params[0]).getKey());
+    }
+    return method.getName();
+  }
+
   /**
    * @brief Instantiate the web driver for a specific test case.
    * @param browser Name of the browser to instantiate the web driver for.
-   * @return RemoteWebDriver object.
+   * @return HtmlUnitDriver object for `htmlunit`, RemoteWebDriver object otherwise.
    */
-  private static RemoteWebDriver createRWD(String browser) {
+  protected static WebDriver createDriver(String browser) {
+    if (isInProcess(browser)) return new HtmlUnitDriver(BrowserVersion.BEST_SUPPORTED, true);
     RemoteWebDriver rwd = null;
     try {
       rwd =  new RemoteWebDriver(new URL(ConfigParameters.selenium_url),
@@ -133,18 +302,27 @@ public class BaseTest {
   }
 
   /**
-   * @brief Getter for the web driver.
-   * @return RemoteWebDriver object.
+   * @brief Getter for the Selenium Grid web driver.
+   * @return RemoteWebDriver object, or null when running in-process (see getWebDriver()).
    */
   protected static synchronized RemoteWebDriver getDriver() {
+    WebDriver d = driver.get();
+    return d instanceof RemoteWebDriver ? (RemoteWebDriver) d : null;
+  }
+
+  /**
+   * @brief Getter for the web driver, whatever its kind.
+   * @return WebDriver object (RemoteWebDriver unless running in-process).
+   */
+  protected static synchronized WebDriver getWebDriver() {
     return driver.get();
   }
 
   /**
    * @brief Setter for the web driver.
-   * @param i RemoteWebDriver object.
+   * @param i WebDriver object.
    */
-  protected static synchronized void setDriver(RemoteWebDriver i) {
+  protected static synchronized void setDriver(WebDriver i) {
     driver.set(i);
   }
 
@@ -177,4 +355,27 @@ public class BaseTest {
   protected static synchronized void deleteTS() {
     ts.remove();
   }
+
+  /**
+   * @brief Getter for the name of the browser the current test case runs on.
+   * @return Name of the browser.
+   */
+  protected static synchronized String getBrowser() {
+    return browser.get();
+  }
+
+  /**
+   * @brief Setter for the name of the browser the current test case runs on.
+   * @param i Name of the browser.
+   */
+  protected static synchronized void setBrowser(String i) {
+    browser.set(i);
+  }
+
+  /**
+   * @brief Deleter for the name of the browser the current test case runs on.
+   */
+  protected static synchronized void deleteBrowser() {
+    browser.remove();
+  }
 }
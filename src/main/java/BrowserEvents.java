@@ -0,0 +1,120 @@
+/**
+ * @file BrowserEvents.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief CDP hooks (network and console) of each browser session.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.devtools.Event;
+import org.openqa.selenium.remote.Augmenter;
+import org.openqa.selenium.devtools.Command;
+import org.openqa.selenium.remote.http.Filter;
+import org.openqa.selenium.devtools.DevTools;
+import org.openqa.selenium.devtools.HasDevTools;
+import org.openqa.selenium.logging.HasLogEvents;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.devtools.NetworkInterceptor;
+import org.openqa.selenium.devtools.events.CdpEventTypes;
+
+/**
+ * @class BrowserEvents
+ * @brief Open the DevTools session of each test and install the hooks required by the enabled features.
+
+ Passive features (FastMode blocking, Forensics recording) only use CDP
+ commands and events, so requests are never paused. Features which need to
+ answer requests themselves (AssetCache) go through the network interceptor,
+ which pauses every request; a session only supports one, so their filters
+ would be chained here, outermost first.
+*/
+public final class BrowserEvents {
+  private static ThreadLocal<DevTools> devtools = new ThreadLocal<>();
+  private static ThreadLocal<NetworkInterceptor> interceptor = new ThreadLocal<>();
+
+  /**
+   * @brief Create a CDP command (version independent).
+   * @param method Name of the CDP method.
+   * @param params Parameters of the method.
+   * @return Command object.
+   */
+  protected static Command<Void> command(String method, Map<String, Object> params) {
+    return new Command<>(method, params);
+  }
+
+  /**
+   * @brief Create a CDP command (version independent) whose result is read as a map.
+   * @param method Name of the CDP method.
+   * @param params Parameters of the method.
+   * @return Command object.
+   */
+  protected static Command<Map<String, Object>> query(String method, Map<String, Object> params) {
+    return new Command<>(method, params, input -> input.read(Json.MAP_TYPE));
+  }
+
+  /**
+   * @brief Create a CDP event (version independent) whose parameters are read as a map.
+   * @param method Name of the CDP event.
+   * @return Event object.
+   */
+  protected static Event<Map<String, Object>> event(String method) {
+    return new Event<>(method, input -> input.read(Json.MAP_TYPE));
+  }
+
+  /**
+   * @brief Start listening to the events of a browser session.
+   * @param driver WebDriver object of the session (only RemoteWebDriver supports CDP).
+   */
+  protected static void attach(WebDriver driver) {
+    if (!(driver instanceof RemoteWebDriver) || SessionPool.isShared(driver)) return;
+    Filter filter = null;
+    if (ConfigParameters.asset_cache) filter = AssetCache.filter();
+    if (filter == null && !ConfigParameters.fast && !ConfigParameters.forensics) return;
+    try {
+      WebDriver augmented = new Augmenter().augment(driver);
+      DevTools tools = ((HasDevTools) augmented).getDevTools();
+      tools.createSessionIfThereIsNotOne();
+      devtools.set(tools);
+      if (ConfigParameters.fast || ConfigParameters.forensics) tools.send(command("Network.enable", Map.of()));
+      if (ConfigParameters.fast) FastMode.attach(tools);
+      if (ConfigParameters.forensics) Forensics.attach(tools);
+      if (filter != null) interceptor.set(new NetworkInterceptor(augmented, filter));
+      if (ConfigParameters.forensics) {
+        ((HasLogEvents) augmented).onLogEvent(CdpEventTypes.consoleEvent(Forensics.consoleListener()));
+      }
+    }
+    catch (Exception e) {
+      String warn = "[WARNING] BrowserEvents.attach :: CDP not supported by the session; network and console events ignored";
+      BaseTest.log.warn(warn);
+      System.out.println(warn);
+    }
+  }
+
+  /**
+   * @brief Stop listening to the events of the current browser session.
+   */
+  protected static void detach() {
+    NetworkInterceptor i = interceptor.get();
+    DevTools tools = devtools.get();
+    interceptor.remove();
+    devtools.remove();
+    try {
+      if (i != null) i.close();
+      if (tools != null) {
+        tools.clearListeners();
+        tools.disconnectSession();
+      }
+    }
+    catch (Exception e) {
+      String warn = "[WARNING] BrowserEvents.detach :: could not close DevTools session";
+      BaseTest.log.warn(warn);
+      System.out.println(warn);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * @file BrowserFanOut.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Concurrent execution of each test method across several browsers.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.lang.reflect.Method;
+import org.testng.ITestResult;
+import java.lang.reflect.Constructor;
+import org.testng.IAnnotationTransformer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.ITestAnnotation;
+
+/**
+ * @class BrowserFanOut
+ * @brief Fan each test method out across the browsers listed in `browsers`.
+
+ Each test method gets one invocation per browser (times its own
+ `invocationCount`), all of them running concurrently on a dedicated pool.
+ Invocations share the test class instance, so class-level setup is only
+ run once. Registered automatically via ServiceLoader; a no-op unless
+ `browsers` lists two or more browsers. Methods using a data provider are
+ left untouched.
+*/
+public final class BrowserFanOut implements IAnnotationTransformer {
+  private static Map<String, AtomicInteger> invocations = new ConcurrentHashMap<>();
+  private static Set<Method> fannedOut = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @brief Multiply the invocations of a test method by the amount of browsers.
+   * @param annotation Test annotation of the method.
+   * @param testClass Unused (method-level transformation only).
+   * @param testConstructor Unused (method-level transformation only).
+   * @param testMethod Method which implements the test case.
+   */
+  @Override
+  @SuppressWarnings("rawtypes")
+  public void transform(ITestAnnotation annotation, Class testClass, Constructor testConstructor, Method testMethod) {
+    List<String> browsers = ConfigParameters.getBrowsers();
+    if (browsers.size() < 2 || testMethod == null) return;
+    if (!BaseTest.class.isAssignableFrom(testMethod.getDeclaringClass())) return;
+    if (!annotation.getDataProvider().isEmpty()) return;
+    annotation.setInvocationCount(annotation.getInvocationCount() * browsers.size());
+    annotation.setThreadPoolSize(Math.max(annotation.getThreadPoolSize(), browsers.size()));
+    fannedOut.add(testMethod);
+  }
+
+  /**
+   * @brief Pick the browser of the test method invocation about to run.
+   * @param r Result of the test method invocation.
+   * @param fallback Browser to use when the method is not fanned out (`browser` parameter).
+   * @return Name of the browser.
+   */
+  protected static String nextBrowser(ITestResult r, String fallback) {
+    List<String> browsers = ConfigParameters.getBrowsers();
+    if (browsers.size() < 2 || r == null || r.getMethod().isDataDriven()) return fallback;
+    if (!fannedOut.contains(r.getMethod().getConstructorOrMethod().getMethod())) return fallback;
+    int i = invocations
+      .computeIfAbsent(r.getMethod().getQualifiedName(), k -> new AtomicInteger())
+      .getAndIncrement();
+    return browsers.get(i % browsers.size());
+  }
+}
@@ -18,6 +18,7 @@ import org.openqa.selenium.edge.EdgeOptions;
 import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.firefox.FirefoxOptions;
 import org.openqa.selenium.firefox.FirefoxProfile;
+import org.openqa.selenium.chromium.ChromiumOptions;
 
 /**
  * @class BrowserOptions
@@ -42,6 +43,39 @@ public final class BrowserOptions {
     }
   }
 
+  /**
+   * @brief Add fast mode CLI options to a Chromium-based browser.
+   * @param options ChromiumOptions object (Chrome or Edge).
+   */
+  private static void setFastChromiumOptions(ChromiumOptions<?> options) {
+    options.addArguments("--disable-background-networking");
+    options.addArguments("--disable-component-update");
+    options.addArguments("--disable-extensions");
+    options.addArguments("--disable-smooth-scrolling");
+    options.addArguments("--autoplay-policy=user-gesture-required");
+  }
+
+  /**
+   * @brief Add fast mode preferences to a Firefox profile.
+   * @param profile FirefoxProfile object.
+   */
+  private static void setFastFirefoxPreferences(FirefoxProfile profile) {
+    // No CDP blocking on Firefox: images follow `fast_block_patterns` via preferences (not counted)
+    if (FastMode.blocksImages()) profile.setPreference("permissions.default.image", 2);
+    profile.setPreference("media.autoplay.default", 5);
+    profile.setPreference("gfx.downloadable_fonts.enabled", false);
+    profile.setPreference("general.smoothScroll", false);
+    profile.setPreference("extensions.enabledScopes", 0);
+    profile.setPreference("network.prefetch-next", false);
+    profile.setPreference("network.dns.disablePrefetch", true);
+    profile.setPreference("network.http.speculative-parallel-limit", 0);
+    profile.setPreference("browser.safebrowsing.malware.enabled", false);
+    profile.setPreference("browser.safebrowsing.phishing.enabled", false);
+    profile.setPreference("app.update.auto", false);
+    profile.setPreference("datareporting.healthreport.uploadEnabled", false);
+    profile.setPreference("toolkit.telemetry.enabled", false);
+  }
+
   /**
    * @brief Obtain Chrome-specific CLI options and capabilities.
    * @return ChromeOptions object.
@@ -52,6 +86,7 @@ public final class BrowserOptions {
     options.addArguments("--ignore-certificate-errors");
     options.addArguments("--disable-popup-blocking");
     if (ConfigParameters.headless) options.addArguments("--headless=new");
+    if (ConfigParameters.fast) setFastChromiumOptions(options);
     return options;
   }
 
@@ -65,6 +100,7 @@ public final class BrowserOptions {
     options.addArguments("--ignore-certificate-errors");
     options.addArguments("--disable-popup-blocking");
     if (ConfigParameters.headless) options.addArguments("--headless");
+    if (ConfigParameters.fast) setFastChromiumOptions(options);
     return options;
   }
 
@@ -77,6 +113,7 @@ public final class BrowserOptions {
     profile.setAcceptUntrustedCertificates(true);
     profile.setAssumeUntrustedCertificateIssuer(false);
     profile.setPreference("network.proxy.type", 0);
+    if (ConfigParameters.fast) setFastFirefoxPreferences(profile);
     FirefoxOptions options = new FirefoxOptions();
     options.setProfile(profile);
     if (ConfigParameters.headless) options.addArguments("-headless");
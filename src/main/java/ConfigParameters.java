@@ -12,7 +12,10 @@ package cat.gencat.mat;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Arrays;
 import java.util.Properties;
+import java.util.stream.Collectors;
 import java.io.FileInputStream;
 
 /**
@@ -25,6 +28,18 @@ import java.io.FileInputStream;
 public final class ConfigParameters {
   private static Properties properties            = new Properties();
   protected static boolean headless               = true;
+  protected static boolean fast                   = false;
+  protected static boolean page_metrics           = true;
+  protected static boolean forensics              = false;
+  protected static int forensics_max_entries      = 500;
+  protected static int forensics_max_kb           = 4096;
+  protected static int metrics_port               = 0;
+  protected static int event_queue_size           = 10000;
+  protected static int tabs_per_session           = 1;
+  protected static String event_sinks             = "";
+  protected static boolean visual_update          = false;
+  protected static boolean asset_cache            = false;
+  protected static int asset_cache_max_mb         = 256;
   protected static String app                     = System.getenv("MAT_TF_APP");
   protected static String app_url                 = System.getenv("MAT_TF_APP_URL");
   protected static String maintainer              = System.getenv("MAT_TF_MAINTAINER");
@@ -37,6 +52,11 @@ public final class ConfigParameters {
   protected static String influxdb_bucket         = System.getenv("MAT_TF_INFLUXDB_BUCKET");
   protected static String influxdb_company        = System.getenv("MAT_TF_INFLUXDB_COMPANY");
   protected static String selenium_firefox_driver = System.getenv("MAT_TF_SELENIUM_FIREFOX_DRIVER");
+  protected static String fast_block_patterns     = System.getenv("MAT_TF_FAST_BLOCK_PATTERNS");
+  protected static String visual_baselines        = System.getenv("MAT_TF_VISUAL_BASELINES");
+  protected static String asset_cache_dir         = System.getenv("MAT_TF_ASSET_CACHE_DIR");
+  private static List<String> browsers;
+  private static int[] shard;
   protected static String environment             = System.getProperty("environment");
   protected static String build_id                = System.getProperty("build_id");
   protected static String job_name                = System.getProperty("job_name");
@@ -93,6 +113,96 @@ public final class ConfigParameters {
     return param;
   }
 
+  /**
+   * @brief Parse a positive integer parameter provided via JVM property.
+   * @param name Name of the parameter.
+   * @param value Default value if not set or not valid.
+   * @return Final parsed value.
+   */
+  private static int setIntParam(String name, int value) {
+    String param = System.getProperty(name);
+    if (param == null) return value;
+    try {
+      int parsed = Integer.parseInt(param.trim());
+      if (parsed > 0) return parsed;
+    }
+    catch (NumberFormatException e) {}
+    System.out.printf("[WARNING] `%s` is not a valid positive integer; defaulting to %d%n", name, value);
+    return value;
+  }
+
+  /**
+   * @brief Obtain the browsers each test method is fanned out to.
+
+   Parsed lazily as it is needed before the suite starts (annotation
+   transformation), hence only via env. var. or JVM property.
+   * @return List of browser names (empty if fan-out mode is disabled).
+   */
+  protected static synchronized List<String> getBrowsers() {
+    if (browsers != null) return browsers;
+    String param = System.getenv("MAT_TF_BROWSERS");
+    if (param == null) param = System.getProperty("browsers");
+    browsers = param == null
+      ? List.of()
+      : Arrays.stream(param.split(","))
+          .map(String::trim)
+          .filter(b -> !b.isEmpty())
+          .collect(Collectors.toUnmodifiableList());
+    return browsers;
+  }
+
+  /**
+   * @brief Parse the shard of the current JVM (`shard_index` and `shard_count`).
+
+   Parsed lazily as it is needed before the suite starts (method
+   interception), hence only via JVM property.
+   * @return Shard index and amount of shards ({0, 1} if sharding is disabled).
+   */
+  private static synchronized int[] getShard() {
+    if (shard != null) return shard;
+    shard = new int[] { 0, 1 };
+    String index = System.getProperty("shard_index");
+    String count = System.getProperty("shard_count");
+    if (index == null && count == null) return shard;
+    try {
+      shard = new int[] { Integer.parseInt(index.trim()), Integer.parseInt(count.trim()) };
+    }
+    catch (NullPointerException | NumberFormatException e) {
+      shard = null;
+    }
+    if (shard == null || shard[1] < 1 || shard[0] < 0 || shard[0] >= shard[1]) {
+      String err = "[ERROR] `shard_index` and `shard_count` must be set together, with 0 <= `shard_index` < `shard_count`";
+      System.err.println(err);
+      BaseTest.log.error(err);
+      System.exit(1);
+    }
+    return shard;
+  }
+
+  /**
+   * @brief Getter for the index of the current shard.
+   * @return Shard index (0-based).
+   */
+  protected static int getShardIndex() {
+    return getShard()[0];
+  }
+
+  /**
+   * @brief Getter for the amount of shards the suite is split into.
+   * @return Amount of shards.
+   */
+  protected static int getShardCount() {
+    return getShard()[1];
+  }
+
+  /**
+   * @brief Check whether the suite is split into several shards.
+   * @return True if sharded, false otherwise.
+   */
+  protected static boolean isSharded() {
+    return getShardCount() > 1;
+  }
+
   /**
    * @brief Setup and parse all config. parameters.
    */
@@ -104,12 +214,76 @@ public final class ConfigParameters {
       headless = false;
     }
 
+    // Disable page-load metrics (optional)
+    if (System.getProperty("page_metrics") != null &&
+        System.getProperty("page_metrics").equalsIgnoreCase("false")) {
+      System.out.println("[INFO] Page-load metrics disabled");
+      page_metrics = false;
+    }
+
+    // Enable failure forensics (optional)
+    if (System.getProperty("forensics") != null &&
+        System.getProperty("forensics").equalsIgnoreCase("true")) {
+      System.out.println("[INFO] Failure forensics enabled");
+      forensics = true;
+    }
+    forensics_max_entries = setIntParam("forensics_max_entries", forensics_max_entries);
+    forensics_max_kb      = setIntParam("forensics_max_kb", forensics_max_kb);
+
+    // Live metrics endpoint (optional)
+    metrics_port = setIntParam("metrics_port", metrics_port);
+
+    // Tests multiplexed onto each browser session (optional)
+    tabs_per_session = setIntParam("tabs_per_session", tabs_per_session);
+    if (tabs_per_session > 1) {
+      System.out.printf("[INFO] Session multiplexing enabled: up to %d tests per session%n", tabs_per_session);
+    }
+
+    // Event pipeline: queue capacity and additional sinks (optional)
+    event_queue_size = setIntParam("event_queue_size", event_queue_size);
+    if (System.getProperty("event_sinks") != null) {
+      event_sinks = System.getProperty("event_sinks").toLowerCase();
+      System.out.printf("[INFO] Additional event sinks: %s%n", event_sinks);
+    }
+
+    // Enable fast mode (optional)
+    if (System.getProperty("fast") != null &&
+        System.getProperty("fast").equalsIgnoreCase("true")) {
+      System.out.println("[INFO] Fast mode enabled");
+      fast = true;
+    }
+
+    // Enable static assets cache (optional)
+    if (System.getProperty("asset_cache") != null &&
+        System.getProperty("asset_cache").equalsIgnoreCase("true")) {
+      System.out.println("[INFO] Static assets cache enabled");
+      asset_cache = true;
+    }
+    asset_cache_max_mb = setIntParam("asset_cache_max_mb", asset_cache_max_mb);
+
+    // Overwrite visual regression baselines (optional)
+    if (System.getProperty("visual_update") != null &&
+        System.getProperty("visual_update").equalsIgnoreCase("true")) {
+      System.out.println("[INFO] Visual baselines update enabled");
+      visual_update = true;
+    }
+
     loadPropertiesFile("config.properties");
     app          = setParam(app, "app");
     app_url      = setParam(app_url, "app_url");
     maintainer   = setParam(maintainer, "maintainer");
     ambit        = setParam(ambit, "ambit");
-    selenium_url = setParam(selenium_url, "selenium_url");
+
+    // Selenium Grid (optional if only running in-process browsers)
+    if (selenium_url == null) {
+      selenium_url = System.getProperty("selenium_url");
+    }
+    if (selenium_url == null) {
+      selenium_url = properties.getProperty("selenium_url");
+    }
+    if (selenium_url == null) {
+      System.out.println("[WARNING] `selenium_url` not set; only `htmlunit` browser available");
+    }
 
     // InfluxDB (optional)
     boolean is_influxdb_enabled = true;
@@ -154,6 +328,57 @@ public final class ConfigParameters {
       selenium_firefox_driver = null;
     }
 
+    // Browsers fan-out (optional)
+    if (getBrowsers().size() > 1) {
+      System.out.printf("[INFO] Browsers fan-out enabled: %s%n", String.join(", ", getBrowsers()));
+    }
+
+    // Sharding (optional)
+    if (isSharded()) {
+      System.out.printf("[INFO] Sharding enabled: shard %d of %d%n", getShardIndex(), getShardCount());
+    }
+
+    // Fast mode blocked URL patterns (optional)
+    if (fast_block_patterns == null) {
+      fast_block_patterns = System.getProperty("fast_block_patterns");
+    }
+    if (fast_block_patterns == null) {
+      fast_block_patterns = properties.getProperty("fast_block_patterns");
+    }
+    if (fast && fast_block_patterns == null) {
+      System.out.println("[INFO] `fast_block_patterns` not set; using default blocked URL patterns");
+    }
+
+    // Visual regression baselines directory (optional)
+    if (visual_baselines == null) {
+      visual_baselines = System.getProperty("visual_baselines");
+    }
+    if (visual_baselines == null) {
+      visual_baselines = properties.getProperty("visual_baselines");
+    }
+    if (visual_baselines == null) {
+      visual_baselines = "src/test/resources/visual";
+    }
+    else if (!isValidPath(visual_baselines)) {
+      System.out.println("[WARNING] `visual_baselines` is not a valid path; using `src/test/resources/visual`");
+      visual_baselines = "src/test/resources/visual";
+    }
+
+    // Static assets cache directory (optional)
+    if (asset_cache_dir == null) {
+      asset_cache_dir = System.getProperty("asset_cache_dir");
+    }
+    if (asset_cache_dir == null) {
+      asset_cache_dir = properties.getProperty("asset_cache_dir");
+    }
+    if (asset_cache_dir == null) {
+      asset_cache_dir = "target/asset-cache";
+    }
+    else if (!isValidPath(asset_cache_dir)) {
+      System.out.println("[WARNING] `asset_cache_dir` is not a valid path; using `target/asset-cache`");
+      asset_cache_dir = "target/asset-cache";
+    }
+
     // Environment, Build ID, Job Name (optional)
     if (is_influxdb_enabled &&
         (environment == null ||
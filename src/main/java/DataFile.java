@@ -0,0 +1,43 @@
+/**
+ * @file DataFile.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Data file of data-driven tests.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.lang.annotation.Target;
+import java.lang.annotation.Retention;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * @class DataFile
+ * @brief CSV (with header) or JSONL file streamed by DataSource to the annotated test method.
+
+ Usage: `@Test(dataProvider = "data", dataProviderClass = DataSource.class)`
+ plus `@DataFile(value = "data/users.csv", key = "user")` on a method taking
+ a single DataRow parameter.
+*/
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface DataFile {
+  /**
+   * @brief Path to the data file (`.csv` or `.jsonl`).
+   */
+  String value();
+
+  /**
+   * @brief Column which identifies each row in the report (row number if empty).
+   */
+  String key() default "";
+
+  /**
+   * @brief Field separator of CSV files.
+   */
+  char separator() default ',';
+}
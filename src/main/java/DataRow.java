@@ -0,0 +1,91 @@
+/**
+ * @file DataRow.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Single row of a streamed data file.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.util.Collections;
+
+/**
+ * @class DataRow
+ * @brief Handle to a row of a DataFile, parsed on demand.
+
+ Only the position of the row within the (memory-mapped) file is kept, as
+ TestNG holds the parameters of every invocation until the suite ends. The
+ row is parsed once on first access and released when the test case ends.
+*/
+public final class DataRow {
+  private final DataSource.Source source;
+  private final long start;
+  private final long end;
+  private final long index;
+  private Map<String, String> values;
+
+  /**
+   * @brief Create the handle.
+   * @param source Source object of the data file.
+   * @param start Position of the first byte of the row.
+   * @param end Position after the last byte of the row.
+   * @param index Number of the row (starting at 1, header excluded).
+   */
+  protected DataRow(DataSource.Source source, long start, long end, long index) {
+    this.source = source;
+    this.start = start;
+    this.end = end;
+    this.index = index;
+  }
+
+  /**
+   * @brief Getter for the whole row (parsed on first access).
+   * @return Column names and their values, in file order (read-only).
+   */
+  public Map<String, String> toMap() {
+    if (values == null) values = Collections.unmodifiableMap(source.parse(start, end));
+    return values;
+  }
+
+  /**
+   * @brief Forget the parsed values once the test case has ended.
+   */
+  protected void release() {
+    values = null;
+  }
+
+  /**
+   * @brief Getter for the value of a column.
+   * @param column Name of the column.
+   * @return Value of the column, or null if not present.
+   */
+  public String get(String column) {
+    return toMap().get(column);
+  }
+
+  /**
+   * @brief Getter for the row number.
+   * @return Number of the row (starting at 1, header excluded).
+   */
+  public long getIndex() {
+    return index;
+  }
+
+  /**
+   * @brief Getter for the key which identifies the row in the report.
+   * @return Value of the key column, or `#<row number>` if not set.
+   */
+  public String getKey() {
+    String key = source.key.isEmpty() ? null : get(source.key);
+    return key != null ? key : String.format("#%d", index);
+  }
+
+  @Override
+  public String toString() {
+    return getKey();
+  }
+}
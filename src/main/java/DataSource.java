@@ -0,0 +1,262 @@
+/**
+ * @file DataSource.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Streaming data provider for data-driven tests.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.util.List;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import org.testng.annotations.DataProvider;
+import org.openqa.selenium.json.Json;
+
+/**
+ * @class DataSource
+ * @brief TestNG data provider which streams the rows of a DataFile.
+
+ The file is memory-mapped (read-only) and scanned lazily: each call to the
+ iterator only finds the bounds of the next row and hands out a DataRow,
+ whose fields are parsed when the test reads them.
+
+ TestNG drains the iterator of a parallel provider (`data`) before running
+ any row, so it holds one DataRow (row bounds only) per row of the file.
+ The sequential provider (`data-seq`) is read one row at a time while the
+ rows run, and its memory use does not depend on the file size.
+*/
+public final class DataSource {
+  private static final int SHIFT = 30;
+  private static final long MASK = (1L << SHIFT) - 1;
+  private static final Map<String, Source> sources = new ConcurrentHashMap<>();
+
+  /**
+   * @class Source
+   * @brief Memory-mapped data file.
+   */
+  protected static final class Source {
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final boolean csv;
+    private final char separator;
+    private final List<String> header;
+    private final long first;
+    protected final String key;
+
+    /**
+     * @brief Map the data file and read its header (CSV only).
+     * @param path Path to the data file.
+     * @param key Column which identifies each row.
+     * @param separator Field separator (CSV only).
+     */
+    private Source(Path path, String key, char separator) throws IOException {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        size = channel.size();
+        segments = new MappedByteBuffer[(int) ((size + MASK) >>> SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+          long offset = (long) i << SHIFT;
+          segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MASK + 1, size - offset));
+        }
+      }
+      this.csv = !path.toString().toLowerCase().endsWith(".jsonl");
+      this.separator = separator;
+      this.key = key;
+      if (csv) {
+        long[] bounds = next(0);
+        header = bounds == null ? List.of() : fields(text(bounds[0], bounds[1]));
+        first = bounds == null ? size : bounds[2];
+      }
+      else {
+        header = null;
+        first = 0;
+      }
+    }
+
+    /**
+     * @brief Read a single byte of the file.
+     * @param pos Position of the byte.
+     * @return Byte value.
+     */
+    private byte at(long pos) {
+      return segments[(int) (pos >>> SHIFT)].get((int) (pos & MASK));
+    }
+
+    /**
+     * @brief Decode part of the file as UTF-8.
+     * @param start Position of the first byte.
+     * @param end Position after the last byte.
+     * @return Decoded string.
+     */
+    private String text(long start, long end) {
+      byte[] bytes = new byte[(int) (end - start)];
+      for (int i = 0; i < bytes.length; i++) bytes[i] = at(start + i);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @brief Find the bounds of the next non-empty row.
+
+     CSV rows may span several lines within quoted fields.
+     * @param pos Position to start searching from.
+     * @return Start, end (line break excluded) and next row position, or null if none left.
+     */
+    private long[] next(long pos) {
+      while (pos < size) {
+        long start = pos;
+        boolean quoted = false;
+        while (pos < size) {
+          byte b = at(pos);
+          if (csv && b == '"') quoted = !quoted;
+          else if (b == '\n' && !quoted) break;
+          pos++;
+        }
+        long end = pos;
+        if (end > start && at(end - 1) == '\r') end--;
+        pos++;
+        if (end > start) return new long[] { start, end, pos };
+      }
+      return null;
+    }
+
+    /**
+     * @brief Split a CSV row into its fields (RFC 4180 quoting).
+     * @param row Text of the row.
+     * @return List of field values.
+     */
+    private List<String> fields(String row) {
+      List<String> values = new ArrayList<>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < row.length(); i++) {
+        char c = row.charAt(i);
+        if (quoted) {
+          if (c != '"') field.append(c);
+          else if (i + 1 < row.length() && row.charAt(i + 1) == '"') field.append(row.charAt(++i));
+          else quoted = false;
+        }
+        else if (c == '"') quoted = true;
+        else if (c == separator) {
+          values.add(field.toString());
+          field.setLength(0);
+        }
+        else field.append(c);
+      }
+      values.add(field.toString());
+      return values;
+    }
+
+    /**
+     * @brief Parse a row.
+     * @param start Position of the first byte of the row.
+     * @param end Position after the last byte of the row.
+     * @return Column names and their values, in file order.
+     */
+    protected Map<String, String> parse(long start, long end) {
+      Map<String, String> row = new LinkedHashMap<>();
+      String text = text(start, end);
+      if (csv) {
+        List<String> values = fields(text);
+        for (int i = 0; i < header.size(); i++) row.put(header.get(i), i < values.size() ? values.get(i) : null);
+        return row;
+      }
+      Map<String, Object> json = new Json().toType(text, Json.MAP_TYPE);
+      json.forEach((k, v) -> row.put(k, v == null ? null : String.valueOf(v)));
+      return row;
+    }
+
+    /**
+     * @brief Iterate lazily over the rows of the file.
+     * @return Iterator of single-parameter arrays holding a DataRow.
+     */
+    private Iterator<Object[]> rows() {
+      return new Iterator<Object[]>() {
+        private long[] bounds = Source.this.next(first);
+        private long index = 0;
+
+        @Override
+        public boolean hasNext() {
+          return bounds != null;
+        }
+
+        @Override
+        public Object[] next() {
+          if (bounds == null) throw new NoSuchElementException();
+          DataRow row = new DataRow(Source.this, bounds[0], bounds[1], ++index);
+          bounds = Source.this.next(bounds[2]);
+          return new Object[] { row };
+        }
+      };
+    }
+  }
+
+  /**
+   * @brief Data provider of the methods annotated with DataFile (rows run in parallel).
+
+   The amount of threads is set by `data-provider-thread-count` in the
+   TestNG XML. TestNG reads all the rows before running the first one.
+   * @param method Method which implements the test case.
+   * @return Iterator of single-parameter arrays holding a DataRow.
+   */
+  @DataProvider(name = "data", parallel = true)
+  public static Iterator<Object[]> data(Method method) {
+    return rows(method, "data");
+  }
+
+  /**
+   * @brief Data provider of the methods annotated with DataFile (rows run sequentially).
+
+   Each row is read from the file right before it runs.
+   * @param method Method which implements the test case.
+   * @return Iterator of single-parameter arrays holding a DataRow.
+   */
+  @DataProvider(name = "data-seq")
+  public static Iterator<Object[]> dataSeq(Method method) {
+    return rows(method, "dataSeq");
+  }
+
+  /**
+   * @brief Open the DataFile of a method and iterate over its rows.
+   * @param method Method which implements the test case.
+   * @param provider Name of the calling data provider (for error messages).
+   * @return Iterator of single-parameter arrays holding a DataRow.
+   */
+  private static Iterator<Object[]> rows(Method method, String provider) {
+    DataFile file = method.getAnnotation(DataFile.class);
+    if (file == null) {
+      String err = String.format("[ERROR] DataSource.%s :: %s is not annotated with @DataFile", provider, method.getName());
+      System.err.println(err);
+      BaseTest.log.error(err);
+      throw new IllegalArgumentException(err);
+    }
+    String id = String.format("%s|%s|%c", file.value(), file.key(), file.separator());
+    try {
+      return sources.computeIfAbsent(id, k -> {
+          try { return new Source(Paths.get(file.value()), file.key(), file.separator()); }
+          catch (IOException e) { throw new UncheckedIOException(e); }
+        }).rows();
+    }
+    catch (UncheckedIOException e) {
+      String err = String.format("[ERROR] DataSource.%s :: could not read `%s`", provider, file.value());
+      System.err.println(err);
+      BaseTest.log.error(err);
+      throw e;
+    }
+  }
+}
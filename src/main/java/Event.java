@@ -0,0 +1,144 @@
+/**
+ * @file Event.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Internal test event model.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import org.testng.ITestResult;
+import org.testng.ITestContext;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @class Event
+ * @brief Immutable test event published by test threads and consumed by the sinks.
+
+ Report entries (test cases and steps) are recorded on the test thread and
+ published as a single TEST event once the test case ends; ANNOTATION,
+ SCREENSHOT and FAILURE only name the items of a ReportEntry.
+*/
+public final class Event {
+  /**
+   * @brief Set of event types.
+   */
+  public enum Type {
+    SUITE_START,
+    SUITE_END,
+    TEST,
+    ANNOTATION,
+    SCREENSHOT,
+    FAILURE,
+    METRIC,
+    TEST_END,
+    CLASS_END,
+    CONTEXT_END,
+    BARRIER,
+  }
+
+  protected final Type type;
+  protected final long time = System.currentTimeMillis();
+  protected final long id;
+  protected final long parent;
+  protected final String name;
+  protected final String level;
+  protected final String message;
+  protected final Object data;
+  protected final ITestResult result;
+  protected final ITestContext context;
+
+  private Event(Type type, long id, long parent, String name, String level, String message,
+                Object data, ITestResult result, ITestContext context) {
+    this.type = type;
+    this.id = id;
+    this.parent = parent;
+    this.name = name;
+    this.level = level;
+    this.message = message;
+    this.data = data;
+    this.result = result;
+    this.context = context;
+  }
+
+  /**
+   * @brief Start of the test suite.
+   * @return Event object.
+   */
+  protected static Event suiteStart() {
+    return new Event(Type.SUITE_START, 0, 0, null, null, null, null, null, null);
+  }
+
+  /**
+   * @brief End of the test suite.
+   * @param info Entries to add to the report's system info.
+   * @return Event object.
+   */
+  protected static Event suiteEnd(Map<String, String> info) {
+    return new Event(Type.SUITE_END, 0, 0, null, null, null, info, null, null);
+  }
+
+  /**
+   * @brief Test case recorded by its thread, complete with its test steps.
+   * @param entry ReportEntry object of the test case (already closed).
+   * @return Event object.
+   */
+  protected static Event test(ReportEntry entry) {
+    return new Event(Type.TEST, entry.id, 0, entry.name, null, entry.browser, entry, null, null);
+  }
+
+  /**
+   * @brief Metrics measured during a test case.
+   * @param r Result of the test execution.
+   * @param name Name of the measurement.
+   * @param url URL of the page the metrics belong to.
+   * @param values Metric names and their values.
+   * @return Event object.
+   */
+  protected static Event metric(ITestResult r, String name, String url, Map<String, Double> values) {
+    return new Event(Type.METRIC, 0, 0, name, null, url, values, r, null);
+  }
+
+  /**
+   * @brief End of a test case (after its teardown).
+   * @param r Result of the test execution.
+   * @param teardown Time spent tearing down the test case (ns), negative if unknown.
+   * @return Event object.
+   */
+  protected static Event testEnd(ITestResult r, long teardown) {
+    Object id = r.getAttribute("test_id");
+    return new Event(Type.TEST_END, id == null ? 0 : (long) id, 0, r.getName(),
+                     (String) r.getAttribute("status"), null, teardown, r, null);
+  }
+
+  /**
+   * @brief End of a test class.
+   * @param ctx ITestContext object of the test class.
+   * @return Event object.
+   */
+  protected static Event classEnd(ITestContext ctx) {
+    return new Event(Type.CLASS_END, 0, 0, null, null, null, null, null, ctx);
+  }
+
+  /**
+   * @brief End of a tests block (`<test>` of the TestNG XML).
+   * @param ctx ITestContext object of the tests block.
+   * @return Event object.
+   */
+  protected static Event contextEnd(ITestContext ctx) {
+    return new Event(Type.CONTEXT_END, 0, 0, ctx.getName(), null, null, null, null, ctx);
+  }
+
+  /**
+   * @brief Synchronization point: released once every previous event is consumed.
+   * @param latch CountDownLatch object to release.
+   * @return Event object.
+   */
+  protected static Event barrier(CountDownLatch latch) {
+    return new Event(Type.BARRIER, 0, 0, null, null, null, latch, null, null);
+  }
+}
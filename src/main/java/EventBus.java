@@ -0,0 +1,125 @@
+/**
+ * @file EventBus.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Asynchronous test events pipeline.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * @class EventBus
+ * @brief Bounded single-consumer queue which dispatches test events to the sinks.
+
+ Test threads only pay the enqueue cost (blocking only when the queue is
+ full); report writes, InfluxDB requests and file I/O happen on the consumer
+ thread. New sinks are added in start() without touching the publishers.
+*/
+public final class EventBus {
+  private static volatile BlockingQueue<Event> queue;
+  private static List<EventSink> sinks = new ArrayList<>();
+  private static Thread consumer;
+
+  /**
+   * @brief Register the sinks and start the consumer thread.
+   * @param capacity Maximum amount of pending events.
+   */
+  protected static synchronized void start(int capacity) {
+    if (queue != null) return;
+    sinks.add(new ExtentSink(ExtentManager.getReport()));
+    if (ResultSender.setup()) sinks.add(new InfluxSink());
+    if (ConfigParameters.event_sinks.contains("junit")) sinks.add(new JUnitSink());
+    if (ConfigParameters.event_sinks.contains("jsonl")) sinks.add(new JsonlSink());
+    queue = new ArrayBlockingQueue<>(capacity);
+    consumer = new Thread(EventBus::consume, "mat-events");
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  /**
+   * @brief Consume events until interrupted.
+   */
+  private static void consume() {
+    BlockingQueue<Event> q = queue;
+    while (true) {
+      Event e;
+      try { e = q.take(); }
+      catch (InterruptedException ex) { return; }
+      for (EventSink sink : sinks) {
+        try { sink.accept(e); }
+        catch (Exception ex) {
+          String err = String.format("[ERROR] %s could not handle %s event", sink.getClass().getSimpleName(), e.type);
+          System.err.println(err);
+          BaseTest.log.error(err, ex);
+        }
+      }
+      if (e.type == Event.Type.BARRIER) ((CountDownLatch) e.data).countDown();
+    }
+  }
+
+  /**
+   * @brief Enqueue an event (ignored if the pipeline is not started).
+   * @param e Event object.
+   */
+  protected static void publish(Event e) {
+    BlockingQueue<Event> q = queue;
+    if (q == null) return;
+    try { q.put(e); }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @brief Getter for the amount of pending events.
+   * @return Queue depth.
+   */
+  protected static int depth() {
+    BlockingQueue<Event> q = queue;
+    return q == null ? 0 : q.size();
+  }
+
+  /**
+   * @brief Wait until every event published so far has been consumed.
+   */
+  protected static void flush() {
+    if (queue == null) return;
+    CountDownLatch latch = new CountDownLatch(1);
+    publish(Event.barrier(latch));
+    try {
+      if (!latch.await(5, TimeUnit.MINUTES)) {
+        String err = "[ERROR] EventBus.flush :: timed out waiting for pending events";
+        System.err.println(err);
+        BaseTest.log.error(err);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @brief Consume every pending event and stop the consumer thread.
+   */
+  protected static synchronized void close() {
+    if (queue == null) return;
+    flush();
+    consumer.interrupt();
+    try { consumer.join(); }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    queue = null;
+    sinks.clear();
+  }
+}
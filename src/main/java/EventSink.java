@@ -0,0 +1,26 @@
+/**
+ * @file EventSink.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Consumer of the test events.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+/**
+ * @class EventSink
+ * @brief Destination of the test events (report, InfluxDB, files...).
+
+ Sinks are only ever called from the EventBus consumer thread, in publishing
+ order, so they need no synchronization of their own.
+*/
+public interface EventSink {
+  /**
+   * @brief Consume a single event.
+   * @param e Event object.
+   */
+  void accept(Event e) throws Exception;
+}
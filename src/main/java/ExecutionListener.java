@@ -2,7 +2,7 @@
  * @file ExecutionListener.java
  * @author juan.a.mora, wasym.atieh
  * @copyright Copyright (C) 2023, 2024 CTTI
- * @brief Tests execution handler and InfluxDB reporter.
+ * @brief Tests execution handler and event publisher.
  *
  * This file is part of mat-selenium.
  */
@@ -10,24 +10,38 @@
 
 package cat.gencat.mat;
 
-import java.time.Instant;
+import org.testng.IResultMap;
 import org.testng.ITestResult;
 import org.testng.ITestContext;
 import org.testng.ITestListener;
-import com.influxdb.client.write.Point;
-import com.influxdb.client.domain.WritePrecision;
 
 /**
  * @class ExecutionListener
  * @brief Behavior definition for each test case result.
- */
+
+ Results are only annotated here; the TEST_END event is published once the
+ teardown has been timed (see testEnded()) and consumed by the sinks.
+*/
 public final class ExecutionListener implements ITestListener {
   /**
    * @brief Handle end of test case execution.
    * @param ctx ITestContext object of the test case.
    */
   public void onFinish(ITestContext ctx) {
-    sendTestClassStatus(ctx);
+    // Results whose teardown never ran (i.e. not extending BaseTest)
+    for (IResultMap results : new IResultMap[] { ctx.getPassedTests(), ctx.getFailedTests(), ctx.getSkippedTests() }) {
+      for (ITestResult r : results.getAllResults()) testEnded(r, -1);
+    }
+    EventBus.publish(Event.contextEnd(ctx));
+  }
+
+  /**
+   * @brief Handle start of test case execution.
+   * @param r Result of the specific test execution.
+   */
+  public void onTestStart(ITestResult r) {
+    r.setAttribute("started", System.nanoTime());
+    LiveMetrics.testStarted();
   }
 
   /**
@@ -35,7 +49,9 @@ public final class ExecutionListener implements ITestListener {
    * @param r Result of the specific test execution.
    */
   public void onTestSuccess(ITestResult r) {
-    sendTestMethodStatus(r, r.getTestContext(), "PASS");
+    LiveMetrics.testFinished("PASS", r.getAttribute("started") != null);
+    setTestMethodStatus(r, "PASS");
+    Forensics.discard();
   }
 
   /**
@@ -43,7 +59,9 @@ public final class ExecutionListener implements ITestListener {
    * @param r Result of the specific test execution.
    */
   public void onTestSkipped(ITestResult r) {
-    sendTestMethodStatus(r, r.getTestContext(), "SKIPPED");
+    LiveMetrics.testFinished("SKIPPED", r.getAttribute("started") != null);
+    setTestMethodStatus(r, "SKIPPED");
+    Forensics.discard();
   }
 
   /**
@@ -51,7 +69,9 @@ public final class ExecutionListener implements ITestListener {
    * @param r Result of the specific test execution.
    */
   public void onTestFailure(ITestResult r) {
-    sendTestMethodStatus(r, r.getTestContext(), "FAIL");
+    LiveMetrics.testFinished("FAIL", r.getAttribute("started") != null);
+    setTestMethodStatus(r, "FAIL");
+    if (ConfigParameters.forensics) Forensics.persist(r);
     String e_name = r.getThrowable().getClass().getSimpleName();
     String e_msg = r.getThrowable().getMessage().split("\n")[0];
     Throwable e = new Throwable(e_msg == null ? e_name : String.format("%s :: %s", e_name, e_msg));
@@ -60,54 +80,28 @@ public final class ExecutionListener implements ITestListener {
   }
 
   /**
-   * @brief Send to InfluxDB execution details of the test case body (method).
+   * @brief Annotate the test result with its final status and body time.
    * @param r Result of the specific test execution.
-   * @param ctx ITestContext object of the test case.
    * @param status Final result of the test case.
    */
-  private static void sendTestMethodStatus(ITestResult r, ITestContext ctx, String status) {
-    if (!ResultSender.setup()) return;
-    Point point = Point.measurement("testmethod")
-      .time(Long.valueOf(Instant.now().toEpochMilli()), WritePrecision.MS)
-      .addTag("testclass", r.getTestClass().getName())
-      .addTag("name", r.getName())
-      .addTag("description", r.getMethod().getDescription())
-      .addTag("result", status)
-      .addTag("environment", ConfigParameters.environment)
-      .addTag("browser", ctx.getCurrentXmlTest().getParameter("browser"))
-      .addTag("application", ConfigParameters.app)
-      .addTag("maintainer", ConfigParameters.maintainer)
-      .addTag("ambit", ConfigParameters.ambit)
-      .addTag("buildnumber", ConfigParameters.build_id)
-      .addTag("jobname", ConfigParameters.job_name)
-      .addTag("jira_pk", ConfigParameters.jira_pk)
-      .addTag("jira_issue", ConfigParameters.jira_issue)
-      .addTag("suite", ctx.getSuite().getName())
-      .addTag("error", r.getThrowable() == null ? "" : r.getThrowable().getMessage())
-      .addField("duration", r.getEndMillis() - r.getStartMillis());
-    try { ResultSender.send(point); }
-    catch (Exception e) {
-      String err = "[ERROR] Could not write data point to InfluxDB";
-      System.err.println(err);
-      BaseTest.log.error(err);
+  private static void setTestMethodStatus(ITestResult r, String status) {
+    r.setAttribute("status", status);
+    r.setAttribute("error", r.getThrowable() == null ? "" : r.getThrowable().getMessage());
+    if (r.getAttribute("started") != null) {
+      long body = System.nanoTime() - (long) r.getAttribute("started");
+      r.setAttribute("body", body);
+      LiveMetrics.testBody(body);
     }
   }
 
   /**
-   * @brief Send to InfluxDB execution details of the test case (class).
-   * @param ctx ITestContext object of the test case.
+   * @brief Publish the end of a test case (once per result).
+   * @param r Result of the specific test execution.
+   * @param teardown Time spent tearing down the test case (ns), negative if unknown.
    */
-  private static void sendTestClassStatus(ITestContext ctx) {
-    if (!ResultSender.setup()) return;
-    Point point = Point.measurement("testclass")
-      .addTag("name", ctx.getAllTestMethods()[0].getTestClass().getName())
-      .addField("duration", (ctx.getEndDate().getTime() - ctx.getStartDate().getTime()))
-      .time(Long.valueOf(Instant.now().toEpochMilli()), WritePrecision.MS);
-    try { ResultSender.send(point); }
-    catch (Exception e) {
-      String err = "[ERROR] Could not write data point to InfluxDB";
-      System.err.println(err);
-      BaseTest.log.error(err);
-    }
+  protected static void testEnded(ITestResult r, long teardown) {
+    if (r.getAttribute("status") == null || r.getAttribute("ended") != null) return;
+    r.setAttribute("ended", true);
+    EventBus.publish(Event.testEnd(r, teardown));
   }
 }
@@ -10,21 +10,31 @@
 
 package cat.gencat.mat;
 
+import java.io.File;
+import java.util.List;
 import java.io.IOException;
+import org.testng.ITestContext;
+import java.util.concurrent.atomic.AtomicLong;
 import com.aventstack.extentreports.ExtentTest;
 import com.aventstack.extentreports.ExtentReports;
+import com.aventstack.extentreports.reporter.JsonFormatter;
 import com.aventstack.extentreports.reporter.ExtentSparkReporter;
 import com.aventstack.extentreports.reporter.configuration.ViewName;
 
 /**
  * @class ExtentManager
  * @brief Create and manage an interactive HTML report of all tests run.
- */
+
+ Each test thread records its test case and test steps in a ReportEntry
+ of its own (no shared state nor locks); the finished entry is published as
+ a single event and merged into the report by ExtentSink.
+*/
 public final class ExtentManager {
   private static ExtentReports report;
   private static ExtentSparkReporter reporter;
-  private static ThreadLocal<ExtentTest> test = new ThreadLocal<>();
-  private static ThreadLocal<ExtentTest> node = new ThreadLocal<>();
+  private static AtomicLong ids = new AtomicLong();
+  private static ThreadLocal<ReportEntry> test = new ThreadLocal<>();
+  private static ThreadLocal<ReportEntry> node = new ThreadLocal<>();
 
   /**
    * @brief Load the ExtentReport's Spark reporter config in JSON format.
@@ -32,8 +42,8 @@ public final class ExtentManager {
    */
   private static void loadReporterConfigFile(String filename) {
     try {
-      reporter.loadJSONConfig(new String(ClassLoader
-                                         .getSystemClassLoader()
+      reporter.loadJSONConfig(new String(ExtentManager.class
+                                         .getClassLoader()
                                          .getResourceAsStream(filename)
                                          .readAllBytes()));
     }
@@ -46,11 +56,9 @@ public final class ExtentManager {
   }
 
   /**
-   * @brief Initialize the report.
+   * @brief Create the Spark reporter which writes `target/report/index.html`.
    */
-  protected static void setup() {
-    if (report != null) return;
-    report = new ExtentReports();
+  private static void createReporter() {
     reporter = new ExtentSparkReporter("target/report/index.html")
       .viewConfigurer()
       .viewOrder()
@@ -64,29 +72,116 @@ public final class ExtentManager {
           ViewName.LOG
         }).apply();
     loadReporterConfigFile("report-config.json");
+  }
+
+  /**
+   * @brief Initialize the report.
+
+   When sharded, the report is also exported as `target/report/shard-N.json`
+   so that it can be merged afterwards (see Sharding).
+   */
+  protected static void setup() {
+    if (report != null) return;
+    report = new ExtentReports();
+    createReporter();
     report.attachReporter(reporter);
+    if (ConfigParameters.isSharded()) {
+      report.attachReporter(new JsonFormatter(String.format("target/report/shard-%d.json",
+                                                            ConfigParameters.getShardIndex())));
+      report.setSystemInfo("shard", String.format("%d/%d",
+                                                  ConfigParameters.getShardIndex(),
+                                                  ConfigParameters.getShardCount()));
+    }
   }
 
   /**
-   * @brief Getter for the ExtentTest's test case.
+   * @brief Merge several exported reports into `target/report/index.html`.
+   * @param archives Exported JSON reports (one per shard).
+   */
+  protected static void merge(List<File> archives) {
+    report = new ExtentReports();
+    for (File archive : archives) {
+      try { report.createDomainFromJsonArchive(archive); }
+      catch (IOException e) {
+        String err = String.format("[ERROR] Could not load `%s` report", archive);
+        System.err.println(err);
+        BaseTest.log.error(err);
+        System.exit(1);
+      }
+    }
+    createReporter();
+    report.attachReporter(reporter);
+    report.flush();
+  }
+
+  /**
+   * @brief Getter for the report model (written by ExtentSink only).
+   * @return ExtentReports object.
+   */
+  protected static ExtentReports getReport() {
+    return report;
+  }
+
+  /**
+   * @brief Create the ExtentTest of a test case entry.
+   * @param report ExtentReports object to write to.
+   * @param entry ReportEntry object of the test case.
    * @return ExtentTest's test object.
    */
-  protected static synchronized ExtentTest getTest() {
+  protected static synchronized ExtentTest createTest(ExtentReports report, ReportEntry entry) {
+    String category = ConfigParameters.environment != null
+      ? String.format("%s-%s", ConfigParameters.app, ConfigParameters.environment)
+      : ConfigParameters.app;
+    return report.createTest(entry.name)
+      .assignCategory(category)
+      .assignAuthor(ConfigParameters.maintainer)
+      .assignDevice(entry.browser);
+  }
+
+  /**
+   * @brief Create the ExtentTest of a test step entry.
+   * @param test ExtentTest's test object of the test case.
+   * @param entry ReportEntry object of the test step.
+   * @return ExtentTest's node object.
+   */
+  protected static synchronized ExtentTest createNode(ExtentTest test, ReportEntry entry) {
+    return test.createNode(entry.name);
+  }
+
+  /**
+   * @brief Getter for the ExtentTest's test case.
+   * @return ExtentTest's test object, or null if none.
+   * @deprecated Writes straight into the report model from the test thread,
+   * bypassing the event pipeline; use getTestEntry() instead.
+   */
+  @Deprecated
+  protected static ExtentTest getTest() {
+    ReportEntry entry = getTestEntry();
+    if (entry == null || report == null) return null;
+    if (entry.legacy == null) entry.legacy = createTest(report, entry);
+    return entry.legacy;
+  }
+
+  /**
+   * @brief Getter for the current test case entry.
+   * @return ReportEntry object, or null if none.
+   */
+  protected static ReportEntry getTestEntry() {
     return test.get();
   }
 
   /**
-   * @brief Setter for the ExtentTest's test case.
-   * @param i ExtentTest's test object.
+   * @brief Setter for the current test case entry.
+   * @param i ReportEntry object.
    */
-  protected static synchronized void setTest(ExtentTest i) {
+  protected static void setTest(ReportEntry i) {
     test.set(i);
   }
 
   /**
-   * @brief Deleter for the ExtentTest's test case.
+   * @brief Deleter for the current test case entry.
    */
-  protected static synchronized void deleteTest() {
+  protected static void deleteTest() {
     test.remove();
   }
 
@@ -94,37 +189,63 @@ public final class ExtentManager {
    * @brief Create a new test case entry in the report.
    * @param name Name of the test case.
    * @param browser Name of the browser the test case has run on.
+   * @return Id of the test case entry.
    */
-  protected static void addTest(String name, String browser) {
-    String category = ConfigParameters.environment != null
-      ? String.format("%s-%s", ConfigParameters.app, ConfigParameters.environment)
-      : ConfigParameters.app;
-    setTest(report.createTest(name)
-            .assignCategory(category)
-            .assignAuthor(ConfigParameters.maintainer)
-            .assignDevice(browser));
+  protected static long addTest(String name, String browser) {
+    endTest();
+    ReportEntry entry = new ReportEntry(ids.incrementAndGet(), name, browser);
+    setTest(entry);
+    return entry.id;
+  }
+
+  /**
+   * @brief Close the current test case entry and hand it over to the report.
+   */
+  protected static void endTest() {
+    ReportEntry entry = getTestEntry();
+    deleteTest();
+    deleteNode();
+    if (entry == null) return;
+    entry.close();
+    EventBus.publish(Event.test(entry));
   }
 
   /**
    * @brief Getter for the ExtentTest's internal test step.
-   * @return ExtentTest's node object.
+   * @return ExtentTest's node object, or null if none.
+   * @deprecated Writes straight into the report model from the test thread,
+   * bypassing the event pipeline; use getNodeEntry() instead.
+   */
+  @Deprecated
+  protected static ExtentTest getNode() {
+    ReportEntry entry = getNodeEntry();
+    if (entry == null) return null;
+    ExtentTest parent = getTest();
+    if (parent == null) return null;
+    if (entry.legacy == null) entry.legacy = createNode(parent, entry);
+    return entry.legacy;
+  }
+
+  /**
+   * @brief Getter for the current test step entry.
+   * @return ReportEntry object, or null if none.
    */
-  protected static synchronized ExtentTest getNode() {
+  protected static ReportEntry getNodeEntry() {
     return node.get();
   }
 
   /**
-   * @brief Setter for the ExtentTest's internal test step.
-   * @param i ExtentTest's node object.
+   * @brief Setter for the current test step entry.
+   * @param i ReportEntry object.
    */
-  protected static synchronized void setNode(ExtentTest i) {
+  protected static void setNode(ReportEntry i) {
     node.set(i);
   }
 
   /**
-   * @brief Deleter for the ExtentTest's internal test step.
+   * @brief Deleter for the current test step entry.
    */
-  protected static synchronized void deleteNode() {
+  protected static void deleteNode() {
     node.remove();
   }
 
@@ -133,16 +254,64 @@ public final class ExtentManager {
    * @param name Name of the test step.
    */
   protected static void addNode(String name) {
-    setNode(getTest().createNode(name));
+    if (getTestEntry() == null) return;
+    setNode(getTestEntry().step(ids.incrementAndGet(), name));
+  }
+
+  /**
+   * @brief Getter for the current entry (test step, or test case if no step is defined).
+   * @return ReportEntry object, or null if none.
+   */
+  private static ReportEntry getCurrent() {
+    return getNodeEntry() != null ? getNodeEntry() : getTestEntry();
+  }
+
+  /**
+   * @brief Add an annotation to the current test step (or test case).
+   * @param level Logging level to use.
+   * @param msg Message to write inside the annotation.
+   */
+  protected static void log(Utils.LogLevel level, String msg) {
+    if (getCurrent() == null) return;
+    getCurrent().annotate(level, msg);
+  }
+
+  /**
+   * @brief Add an annotation to the current test case (never to a test step).
+   * @param level Logging level to use.
+   * @param msg Message to write inside the annotation.
+   */
+  protected static void logTest(Utils.LogLevel level, String msg) {
+    if (getTestEntry() == null) return;
+    getTestEntry().annotate(level, msg);
+  }
+
+  /**
+   * @brief Attach a screenshot to the current test step (or test case).
+   * @param base64 Screenshot encoded in base64.
+   * @param caption Description of the screenshot.
+   */
+  protected static void screenshot(String base64, String caption) {
+    if (getCurrent() == null) return;
+    getCurrent().screenshot(base64, caption);
+  }
+
+  /**
+   * @brief Mark the current test step (or test case) as failed.
+   * @param e Throwable which represents the error.
+   */
+  protected static void fail(Throwable e) {
+    if (getCurrent() == null) return;
+    getCurrent().fail(e);
   }
 
   /**
    * @brief Clean up all resources related to the test case entry.
+   * @param ctx ITestContext object of the test class.
    */
-  protected static void flush() {
+  protected static void flush(ITestContext ctx) {
     if (report == null) return;
-    report.flush();
-    deleteTest();
-    deleteNode();
+    endTest();
+    EventBus.publish(Event.classEnd(ctx));
   }
 }
@@ -0,0 +1,129 @@
+/**
+ * @file ExtentSink.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief HTML report sink of the test events.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.util.Date;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Comparator;
+import org.testng.ITestContext;
+import com.aventstack.extentreports.ExtentTest;
+import com.aventstack.extentreports.ExtentReports;
+import com.aventstack.extentreports.model.Log;
+
+/**
+ * @class ExtentSink
+ * @brief Merge the recorded test cases into the ExtentReports model and flush it.
+
+ Test cases are buffered as they end and merged in a single pass at each
+ class (or suite) flush, sorted by start time, so the report order does not
+ depend on thread scheduling.
+*/
+public final class ExtentSink implements EventSink {
+  private final ExtentReports report;
+  private final List<ReportEntry> pending = new ArrayList<>();
+
+  /**
+   * @brief Create the sink.
+   * @param report ExtentReports object to write to.
+   */
+  protected ExtentSink(ExtentReports report) {
+    this.report = report;
+  }
+
+  /**
+   * @brief Consume a single event.
+   * @param e Event object.
+   */
+  @Override
+  public void accept(Event e) {
+    switch (e.type) {
+    case TEST:
+      pending.add((ReportEntry) e.data);
+      break;
+    case CLASS_END:
+      merge();
+      flush(e.context);
+      break;
+    case SUITE_END:
+      merge();
+      @SuppressWarnings("unchecked")
+      Map<String, String> info = (Map<String, String>) e.data;
+      if (info != null) info.forEach(report::setSystemInfo);
+      flush(null);
+      break;
+    default:
+    }
+  }
+
+  /**
+   * @brief Add the pending test cases to the report, in start time order.
+   */
+  private void merge() {
+    if (pending.isEmpty()) return;
+    pending.sort(Comparator.comparingLong((ReportEntry entry) -> entry.start).thenComparingLong(entry -> entry.id));
+    for (ReportEntry entry : pending) {
+      ExtentTest test = entry.legacy != null ? entry.legacy : ExtentManager.createTest(report, entry);
+      write(test, entry);
+      for (ReportEntry step : entry.steps) {
+        write(step.legacy != null ? step.legacy : ExtentManager.createNode(test, step), step);
+      }
+    }
+    pending.clear();
+  }
+
+  /**
+   * @brief Write the items of an entry and keep their original timestamps.
+   * @param test ExtentTest object to write to.
+   * @param entry ReportEntry object to read from.
+   */
+  private static void write(ExtentTest test, ReportEntry entry) {
+    List<Log> logs = test.getModel().getLogs();
+    for (ReportEntry.Item item : entry.items) {
+      int before = logs.size();
+      switch (item.type) {
+      case ANNOTATION:
+        switch (Utils.LogLevel.valueOf(item.level)) {
+        case WARNING: test.warning(item.message); break;
+        case PASS: test.pass(item.message); break;
+        case SKIP: test.skip(item.message); break;
+        default: test.info(item.message);
+        }
+        break;
+      case SCREENSHOT:
+        test.addScreenCaptureFromBase64String((String) item.data, item.message);
+        break;
+      case FAILURE:
+        test.fail((Throwable) item.data);
+        break;
+      default:
+      }
+      if (logs.size() > before) logs.get(logs.size() - 1).setTimestamp(new Date(item.time));
+    }
+    test.getModel().setStartTime(new Date(entry.start));
+    test.getModel().setEndTime(new Date(entry.end));
+  }
+
+  /**
+   * @brief Flush the report to disk and account for the time spent.
+   * @param ctx ITestContext object to accumulate the flush time on (optional).
+   */
+  private void flush(ITestContext ctx) {
+    long t0 = System.nanoTime();
+    report.flush();
+    long flush = System.nanoTime() - t0;
+    LiveMetrics.reportFlushed(flush);
+    if (ctx == null) return;
+    Object total = ctx.getAttribute("flush");
+    ctx.setAttribute("flush", (total == null ? 0 : (long) total) + flush);
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * @file FastMode.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Heavyweight and third-party resources blocking.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openqa.selenium.devtools.DevTools;
+
+/**
+ * @class FastMode
+ * @brief Block configurable URL patterns via CDP `Network.setBlockedURLs`.
+
+ Patterns use `*` as wildcard and are matched against the whole request URL
+ (without query string nor fragment). Requests are blocked by the browser
+ itself, without pausing them nor sending them to the JVM; the blocked ones
+ are counted from `Network.loadingFailed` events. Browser features which can
+ only be disabled via preferences (smooth scrolling, background networking,
+ and images on Firefox) are handled by BrowserOptions.
+*/
+public final class FastMode {
+  private static final String[] DEFAULT_PATTERNS = {
+    // Images
+    "*.png", "*.jpg", "*.jpeg", "*.gif", "*.webp", "*.svg", "*.ico",
+    // Fonts
+    "*.woff", "*.woff2", "*.ttf", "*.otf", "*.eot",
+    // Media
+    "*.mp4", "*.webm", "*.ogg", "*.mp3", "*.wav",
+    // Third-party trackers, fonts, maps and video
+    "*://*.google-analytics.com/*",
+    "*://*.googletagmanager.com/*",
+    "*://*.doubleclick.net/*",
+    "*://*.facebook.net/*",
+    "*://*.hotjar.com/*",
+    "*://fonts.googleapis.com/*",
+    "*://fonts.gstatic.com/*",
+    "*://maps.googleapis.com/*",
+    "*://*.youtube.com/embed/*",
+  };
+  private static List<Pattern> patterns;
+  private static List<String> urls;
+  private static ThreadLocal<AtomicLong> blocked = new ThreadLocal<>();
+
+  /**
+   * @brief Compile the blocked URL patterns (once per suite).
+   * @return List of compiled Pattern objects.
+   */
+  private static synchronized List<Pattern> getPatterns() {
+    if (patterns != null) return patterns;
+    String[] raw = ConfigParameters.fast_block_patterns != null
+      ? ConfigParameters.fast_block_patterns.split(",")
+      : DEFAULT_PATTERNS;
+    patterns = new ArrayList<>();
+    urls = new ArrayList<>();
+    for (String p : raw) {
+      if (p.isBlank()) continue;
+      // CDP matches the whole URL, query string included
+      urls.add(p.trim());
+      if (!p.trim().endsWith("*")) urls.add(p.trim() + "?*");
+      StringBuilder regex = new StringBuilder();
+      for (String part : p.trim().split("\\*", -1)) {
+        if (regex.length() > 0) regex.append(".*");
+        regex.append(Pattern.quote(part));
+      }
+      patterns.add(Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE));
+    }
+    return patterns;
+  }
+
+  /**
+   * @brief Check whether a specific URL must be blocked or not.
+   * @param url Full URL of the request.
+   * @return True if blocked, false otherwise.
+   */
+  protected static boolean isBlocked(String url) {
+    int end = url.length();
+    int query = url.indexOf('?');
+    int fragment = url.indexOf('#');
+    if (query != -1) end = query;
+    if (fragment != -1 && fragment < end) end = fragment;
+    String target = url.substring(0, end);
+    for (Pattern p : getPatterns()) {
+      if (p.matcher(target).matches()) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @brief Check whether the blocked URL patterns include images.
+   * @return True if PNG or JPEG images are blocked, false otherwise.
+   */
+  protected static boolean blocksImages() {
+    return isBlocked("https://mat.invalid/image.png") || isBlocked("https://mat.invalid/image.jpg");
+  }
+
+  /**
+   * @brief Block the requests of the current test case via the browser's DevTools session.
+   * @param devTools DevTools object with an open session (and `Network` enabled).
+   */
+  protected static void attach(DevTools devTools) {
+    getPatterns();
+    AtomicLong counter = new AtomicLong();
+    blocked.set(counter);
+    devTools.addListener(BrowserEvents.event("Network.loadingFailed"), e -> {
+      if (e.get("blockedReason") != null) counter.incrementAndGet();
+    });
+    devTools.send(BrowserEvents.command("Network.setBlockedURLs", Map.of("urls", urls)));
+  }
+
+  /**
+   * @brief Obtain and reset the blocked requests counter of the current test case.
+   * @return Amount of requests blocked during the test case.
+   */
+  protected static long blocked() {
+    AtomicLong counter = blocked.get();
+    blocked.remove();
+    return counter == null ? 0 : counter.get();
+  }
+}
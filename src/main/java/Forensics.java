@@ -0,0 +1,329 @@
+/**
+ * @file Forensics.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief In-memory failure evidence, persisted only on failure.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.util.List;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import org.testng.ITestResult;
+import java.util.LinkedHashMap;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.devtools.DevTools;
+import java.util.concurrent.ConcurrentHashMap;
+import org.openqa.selenium.devtools.events.ConsoleEvent;
+
+/**
+ * @class Forensics
+ * @brief Bounded per-test ring buffer of network, console and DOM artifacts.
+
+ The buffer lives in memory while the test case runs, oldest artifacts being
+ evicted once `forensics_max_entries` or `forensics_max_kb` is exceeded. It
+ is discarded when the test case passes and written to
+ `target/report/forensics/` (HAR plus JSON) when it fails.
+*/
+public final class Forensics {
+  private static final String DIR = "target/report/forensics";
+  private static ThreadLocal<Buffer> buffer = new ThreadLocal<>();
+
+  /**
+   * @class Artifact
+   * @brief Single piece of evidence held by the buffer.
+   */
+  private static final class Artifact {
+    private final String type;
+    private final long time;
+    private final String name;
+    private final Object data;
+    private final long size;
+
+    private Artifact(String type, long time, String name, Object data, long size) {
+      this.type = type;
+      this.time = time;
+      this.name = name;
+      this.data = data;
+      this.size = size;
+    }
+  }
+
+  /**
+   * @class Buffer
+   * @brief Ring buffer bounded by amount of artifacts and by size.
+
+   Written from the test thread (DOM) and from CDP threads (network, console).
+   */
+  private static final class Buffer {
+    private final ArrayDeque<Artifact> artifacts = new ArrayDeque<>();
+    private long bytes = 0;
+
+    private synchronized void add(Artifact a) {
+      artifacts.addLast(a);
+      bytes += a.size;
+      while (artifacts.size() > 1 &&
+             (artifacts.size() > ConfigParameters.forensics_max_entries ||
+              bytes > ConfigParameters.forensics_max_kb * 1024L)) {
+        bytes -= artifacts.removeFirst().size;
+      }
+    }
+
+    private synchronized List<Artifact> drain() {
+      List<Artifact> all = new ArrayList<>(artifacts);
+      artifacts.clear();
+      bytes = 0;
+      return all;
+    }
+  }
+
+  /**
+   * @brief Create a new empty buffer for the test case running on the current thread.
+   */
+  protected static void start() {
+    buffer.set(new Buffer());
+  }
+
+  /**
+   * @brief Discard the buffer of the current test case.
+   */
+  protected static void discard() {
+    buffer.remove();
+  }
+
+  /**
+   * @brief Obtain the buffer of the current test case, creating it if needed.
+   * @return Buffer object.
+   */
+  private static Buffer getBuffer() {
+    if (buffer.get() == null) start();
+    return buffer.get();
+  }
+
+  /**
+   * @brief Convert CDP headers to HAR format.
+   * @param raw Headers object of a CDP Request or Response (name to value).
+   * @return List of name/value maps.
+   */
+  private static List<Map<String, Object>> harHeaders(Object raw) {
+    List<Map<String, Object>> headers = new ArrayList<>();
+    if (!(raw instanceof Map)) return headers;
+    for (Map.Entry<?, ?> h : ((Map<?, ?>) raw).entrySet()) {
+      headers.add(Map.of("name", String.valueOf(h.getKey()), "value", String.valueOf(h.getValue())));
+    }
+    return headers;
+  }
+
+  /**
+   * @brief Estimate the memory held by a list of HAR headers.
+   * @param headers List of name/value maps.
+   * @return Estimated size (bytes).
+   */
+  private static long size(List<Map<String, Object>> headers) {
+    long size = 0;
+    for (Map<String, Object> h : headers) {
+      size += 64 + (((String) h.get("name")).length() + ((String) h.get("value")).length()) * 2L;
+    }
+    return size;
+  }
+
+  /**
+   * @brief Convert a number sent by CDP to double.
+   * @param value Number object or null.
+   * @return Double value, or 0 if not a number.
+   */
+  private static double number(Object value) {
+    return value instanceof Number ? ((Number) value).doubleValue() : 0;
+  }
+
+  /**
+   * @brief Add a finished (or failed) request to the buffer as a HAR entry.
+   * @param b Buffer of the test case.
+   * @param request Parameters of its `Network.requestWillBeSent` event.
+   * @param response Response object sent by CDP (null if none).
+   * @param finished Monotonic timestamp (s) of its end.
+   * @param error Error text if the request failed, null otherwise.
+   */
+  @SuppressWarnings("unchecked")
+  private static void record(Buffer b, Map<String, Object> request, Map<String, Object> response, double finished, String error) {
+    Map<String, Object> req = (Map<String, Object>) request.get("request");
+    String url = String.valueOf(req.get("url"));
+    long started = (long) (number(request.get("wallTime")) * 1000);
+    double elapsed = Math.max(0, (finished - number(request.get("timestamp"))) * 1000);
+    List<Map<String, Object>> reqHeaders = harHeaders(req.get("headers"));
+    List<Map<String, Object>> resHeaders = harHeaders(response == null ? null : response.get("headers"));
+    String protocol = response == null || response.get("protocol") == null ? "HTTP/1.1" : String.valueOf(response.get("protocol"));
+
+    Map<String, Object> harRequest = new LinkedHashMap<>();
+    harRequest.put("method", String.valueOf(req.get("method")));
+    harRequest.put("url", url);
+    harRequest.put("httpVersion", protocol);
+    harRequest.put("cookies", List.of());
+    harRequest.put("headers", reqHeaders);
+    harRequest.put("queryString", List.of());
+    harRequest.put("headersSize", -1);
+    harRequest.put("bodySize", -1);
+
+    Object mime = response == null ? null : response.get("mimeType");
+    Map<String, Object> harResponse = new LinkedHashMap<>();
+    harResponse.put("status", response == null ? 0 : (int) number(response.get("status")));
+    harResponse.put("statusText", response == null || response.get("statusText") == null ? "" : String.valueOf(response.get("statusText")));
+    harResponse.put("httpVersion", protocol);
+    harResponse.put("cookies", List.of());
+    harResponse.put("headers", resHeaders);
+    harResponse.put("content", Map.of("size", -1, "mimeType", mime == null ? "" : String.valueOf(mime)));
+    harResponse.put("redirectURL", "");
+    harResponse.put("headersSize", -1);
+    harResponse.put("bodySize", -1);
+    if (error != null) harResponse.put("_error", error);
+
+    Map<String, Object> entry = new LinkedHashMap<>();
+    entry.put("startedDateTime", Instant.ofEpochMilli(started).toString());
+    entry.put("time", elapsed);
+    entry.put("request", harRequest);
+    entry.put("response", harResponse);
+    entry.put("cache", Map.of());
+    entry.put("timings", Map.of("send", 0, "wait", elapsed, "receive", 0));
+
+    long size = 512 + url.length() * 2L + size(reqHeaders) + size(resHeaders);
+    b.add(new Artifact("network", started, url, entry, size));
+  }
+
+  /**
+   * @brief Record the traffic of the current test case from passive CDP `Network` events.
+
+   Requests are neither paused nor copied to the JVM; only their metadata
+   (URL, headers, status and timing) is kept.
+   * @param devTools DevTools object with an open session (and `Network` enabled).
+   */
+  @SuppressWarnings("unchecked")
+  protected static void attach(DevTools devTools) {
+    Buffer b = getBuffer();
+    Map<String, Map<String, Object>> requests = new ConcurrentHashMap<>();
+    Map<String, Map<String, Object>> responses = new ConcurrentHashMap<>();
+    devTools.addListener(BrowserEvents.event("Network.requestWillBeSent"), e -> {
+      String id = String.valueOf(e.get("requestId"));
+      // Redirects reuse the request id: the previous hop ends here
+      Map<String, Object> previous = requests.get(id);
+      if (previous != null && e.get("redirectResponse") != null) {
+        record(b, previous, (Map<String, Object>) e.get("redirectResponse"), number(e.get("timestamp")), null);
+      }
+      requests.put(id, e);
+      responses.remove(id);
+    });
+    devTools.addListener(BrowserEvents.event("Network.responseReceived"), e -> {
+      Object response = e.get("response");
+      if (response instanceof Map) responses.put(String.valueOf(e.get("requestId")), (Map<String, Object>) response);
+    });
+    devTools.addListener(BrowserEvents.event("Network.loadingFinished"), e -> {
+      String id = String.valueOf(e.get("requestId"));
+      Map<String, Object> request = requests.remove(id);
+      Map<String, Object> response = responses.remove(id);
+      if (request != null) record(b, request, response, number(e.get("timestamp")), null);
+    });
+    devTools.addListener(BrowserEvents.event("Network.loadingFailed"), e -> {
+      String id = String.valueOf(e.get("requestId"));
+      Map<String, Object> request = requests.remove(id);
+      Map<String, Object> response = responses.remove(id);
+      if (request != null) record(b, request, response, number(e.get("timestamp")), String.valueOf(e.get("errorText")));
+    });
+  }
+
+  /**
+   * @brief Create the console listener which records the logs of the current test case.
+   * @return Consumer object to be installed via BrowserEvents.
+   */
+  protected static Consumer<ConsoleEvent> consoleListener() {
+    Buffer b = getBuffer();
+    return event -> {
+      String msg = String.join(" ", event.getMessages());
+      b.add(new Artifact("console", event.getTimestamp().toEpochMilli(), event.getType(), msg, 64 + msg.length() * 2L));
+    };
+  }
+
+  /**
+   * @brief Record a compressed snapshot of the current DOM.
+   * @param step Name of the test step the snapshot belongs to.
+   */
+  protected static void snapshot(String step) {
+    if (BaseTest.getWebDriver() == null) return;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+        gz.write(BaseTest.getWebDriver().getPageSource().getBytes(StandardCharsets.UTF_8));
+      }
+      byte[] data = bytes.toByteArray();
+      getBuffer().add(new Artifact("dom", System.currentTimeMillis(), step, data, data.length));
+    }
+    catch (Exception e) {
+      String warn = "[WARNING] Forensics.snapshot :: could not capture DOM snapshot";
+      BaseTest.log.warn(warn);
+      System.out.println(warn);
+    }
+  }
+
+  /**
+   * @brief Write the buffer of the failed test case to disk and link it from the report.
+   * @param r Result of the failed test execution.
+   */
+  protected static void persist(ITestResult r) {
+    Buffer b = buffer.get();
+    buffer.remove();
+    if (b == null) return;
+    List<Artifact> artifacts = b.drain();
+    if (artifacts.isEmpty()) return;
+
+    String name = String.format("%s.%s-%d", r.getTestClass().getName(), r.getName(), System.currentTimeMillis());
+    Path dir = Paths.get(DIR, name);
+    List<Object> entries = new ArrayList<>();
+    List<Object> console = new ArrayList<>();
+    List<Object> dom = new ArrayList<>();
+    try {
+      Files.createDirectories(dir);
+      for (Artifact a : artifacts) {
+        if (a.type.equals("network")) entries.add(a.data);
+        else if (a.type.equals("console")) {
+          console.add(Map.of("time", Instant.ofEpochMilli(a.time).toString(), "type", a.name, "message", a.data));
+        }
+        else {
+          String file = String.format("dom-%d.html.gz", dom.size());
+          Files.write(dir.resolve(file), (byte[]) a.data);
+          dom.add(Map.of("time", Instant.ofEpochMilli(a.time).toString(), "step", a.name, "file", file));
+        }
+      }
+      Map<String, Object> log = new LinkedHashMap<>();
+      log.put("version", "1.2");
+      log.put("creator", Map.of("name", "mat-selenium", "version", ""));
+      log.put("entries", entries);
+      Json json = new Json();
+      Files.writeString(dir.resolve("network.har"), json.toJson(Map.of("log", log)));
+      Map<String, Object> index = new LinkedHashMap<>();
+      index.put("test", String.format("%s.%s", r.getTestClass().getName(), r.getName()));
+      index.put("console", console);
+      index.put("dom", dom);
+      Files.writeString(dir.resolve("forensics.json"), json.toJson(index));
+    }
+    catch (IOException e) {
+      String err = String.format("[ERROR] Could not write forensics to `%s`", dir);
+      System.err.println(err);
+      BaseTest.log.error(err);
+      return;
+    }
+
+    ExtentManager.log(Utils.LogLevel.INFO, String.format("Forensics :: <a href='forensics/%1$s/network.har'>network.har</a> | <a href='forensics/%1$s/forensics.json'>forensics.json</a>", name));
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * @file InfluxSink.java
+ * @author juan.a.mora, wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief InfluxDB sink of the test events.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import org.testng.ITestResult;
+import org.testng.ITestContext;
+import com.influxdb.client.write.Point;
+import com.influxdb.client.domain.WritePrecision;
+
+/**
+ * @class InfluxSink
+ * @brief Convert the test events into InfluxDB data points and send them.
+
+ Measurements: `testmethod` (TEST_END), `pageload` (METRIC) and `testclass`
+ (CONTEXT_END).
+*/
+public final class InfluxSink implements EventSink {
+  /**
+   * @brief Consume a single event.
+   * @param e Event object.
+   */
+  @Override
+  public void accept(Event e) {
+    switch (e.type) {
+    case TEST_END:
+      send(testMethodPoint(e));
+      break;
+    case METRIC:
+      if (e.result != null) send(metricPoint(e));
+      break;
+    case CONTEXT_END:
+      send(testClassPoint(e));
+      break;
+    case SUITE_END:
+      ResultSender.close();
+      break;
+    default:
+    }
+  }
+
+  /**
+   * @brief Write a data point to InfluxDB.
+   * @param point Data entry to write as a Point object.
+   */
+  private static void send(Point point) {
+    try { ResultSender.send(point); }
+    catch (Exception e) {
+      String err = "[ERROR] Could not write data point to InfluxDB";
+      System.err.println(err);
+      BaseTest.log.error(err);
+    }
+  }
+
+  /**
+   * @brief Add the shard the JVM runs (if sharded) to a data point.
+   * @param p Data entry to tag as a Point object.
+   * @return Tagged Point object.
+   */
+  private static Point addShardTag(Point p) {
+    if (!ConfigParameters.isSharded()) return p;
+    return p.addTag("shard", String.format("%d/%d", ConfigParameters.getShardIndex(), ConfigParameters.getShardCount()));
+  }
+
+  /**
+   * @brief Add the tags which identify a test case execution to a data point.
+   * @param p Data entry to tag as a Point object.
+   * @param r Result of the specific test execution.
+   * @param ctx ITestContext object of the test case.
+   * @return Tagged Point object.
+   */
+  private static Point addRunTags(Point p, ITestResult r, ITestContext ctx) {
+    return addShardTag(p)
+      .addTag("testclass", r.getTestClass().getName())
+      .addTag("name", r.getName())
+      .addTag("environment", ConfigParameters.environment)
+      .addTag("browser", r.getAttribute("browser") != null
+              ? (String) r.getAttribute("browser")
+              : ctx.getCurrentXmlTest().getParameter("browser"))
+      .addTag("application", ConfigParameters.app)
+      .addTag("maintainer", ConfigParameters.maintainer)
+      .addTag("ambit", ConfigParameters.ambit)
+      .addTag("buildnumber", ConfigParameters.build_id)
+      .addTag("jobname", ConfigParameters.job_name)
+      .addTag("jira_pk", ConfigParameters.jira_pk)
+      .addTag("jira_issue", ConfigParameters.jira_issue)
+      .addTag("suite", ctx.getSuite().getName());
+  }
+
+  /**
+   * @brief Execution details of the test case body (method).
+   * @param e TEST_END event.
+   * @return Point object.
+   */
+  private static Point testMethodPoint(Event e) {
+    ITestResult r = e.result;
+    Point point = addRunTags(Point.measurement("testmethod"), r, r.getTestContext())
+      .time(Long.valueOf(e.time), WritePrecision.MS)
+      .addTag("description", r.getMethod().getDescription())
+      .addTag("result", e.level)
+      .addTag("error", r.getAttribute("error") == null ? "" : (String) r.getAttribute("error"))
+      .addField("duration", r.getEndMillis() - r.getStartMillis())
+      .addField("body", r.getAttribute("body") == null ? 0 : (long) r.getAttribute("body") / 1000000);
+    if (r.getAttribute("session") != null) point.addField("session", (long) r.getAttribute("session") / 1000000);
+    if ((long) e.data >= 0) point.addField("teardown", (long) e.data / 1000000);
+    return point;
+  }
+
+  /**
+   * @brief Metrics measured during a test case (i.e. page-load performance).
+   * @param e METRIC event.
+   * @return Point object.
+   */
+  private static Point metricPoint(Event e) {
+    @SuppressWarnings("unchecked")
+    Map<String, Double> values = (Map<String, Double>) e.data;
+    Point point = addRunTags(Point.measurement(e.name), e.result, e.result.getTestContext())
+      .time(Long.valueOf(e.time), WritePrecision.MS)
+      .addTag("url", e.message);
+    values.forEach(point::addField);
+    return point;
+  }
+
+  /**
+   * @brief Execution details of the test case (class).
+   * @param e CONTEXT_END event.
+   * @return Point object.
+   */
+  private static Point testClassPoint(Event e) {
+    ITestContext ctx = e.context;
+    return addShardTag(Point.measurement("testclass"))
+      .addTag("name", ctx.getAllTestMethods()[0].getTestClass().getName())
+      .addField("duration", (ctx.getEndDate().getTime() - ctx.getStartDate().getTime()))
+      .addField("flush", ctx.getAttribute("flush") == null ? 0 : (long) ctx.getAttribute("flush") / 1000000)
+      .time(Long.valueOf(e.time), WritePrecision.MS);
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * @file JUnitSink.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief JUnit XML sink of the test events.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.util.List;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import org.testng.ITestResult;
+
+/**
+ * @class JUnitSink
+ * @brief Write the test case results to `target/report/junit.xml` (or
+ `junit-<shard>.xml` if sharded) once the suite ends.
+ */
+public final class JUnitSink implements EventSink {
+  private final Map<String, List<Event>> classes = new LinkedHashMap<>();
+
+  /**
+   * @brief Consume a single event.
+   * @param e Event object.
+   */
+  @Override
+  public void accept(Event e) throws IOException {
+    switch (e.type) {
+    case TEST_END:
+      classes.computeIfAbsent(e.result.getTestClass().getName(), k -> new ArrayList<>()).add(e);
+      break;
+    case SUITE_END:
+      write();
+      break;
+    default:
+    }
+  }
+
+  /**
+   * @brief Escape a string to be used within XML attributes or text.
+   * @param s String to escape.
+   * @return Escaped string.
+   */
+  private static String escape(String s) {
+    if (s == null) return "";
+    return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+      .replace("\"", "&quot;").replace("'", "&apos;");
+  }
+
+  /**
+   * @brief Write the collected results to disk.
+   */
+  private void write() throws IOException {
+    StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuites>\n");
+    for (Map.Entry<String, List<Event>> c : classes.entrySet()) {
+      int failures = 0, skipped = 0;
+      long time = 0;
+      for (Event e : c.getValue()) {
+        if ("FAIL".equals(e.level)) failures++;
+        else if ("SKIPPED".equals(e.level)) skipped++;
+        time += e.result.getEndMillis() - e.result.getStartMillis();
+      }
+      sb.append(String.format("  <testsuite name=\"%s\" tests=\"%d\" failures=\"%d\" skipped=\"%d\" time=\"%.3f\">%n",
+                              escape(c.getKey()), c.getValue().size(), failures, skipped, time / 1000.0));
+      for (Event e : c.getValue()) {
+        ITestResult r = e.result;
+        String browser = (String) r.getAttribute("browser");
+        String name = browser == null ? r.getName() : String.format("%s {%s}", r.getName(), browser);
+        sb.append(String.format("    <testcase classname=\"%s\" name=\"%s\" time=\"%.3f\"",
+                                escape(c.getKey()), escape(name), (r.getEndMillis() - r.getStartMillis()) / 1000.0));
+        if ("FAIL".equals(e.level)) {
+          sb.append(String.format(">%n      <failure message=\"%s\"/>%n    </testcase>%n", escape((String) r.getAttribute("error"))));
+        }
+        else if ("SKIPPED".equals(e.level)) sb.append(String.format(">%n      <skipped/>%n    </testcase>%n"));
+        else sb.append(String.format("/>%n"));
+      }
+      sb.append("  </testsuite>\n");
+    }
+    sb.append("</testsuites>\n");
+
+    Path file = ConfigParameters.isSharded()
+      ? Paths.get("target/report", String.format("junit-%d.xml", ConfigParameters.getShardIndex()))
+      : Paths.get("target/report", "junit.xml");
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, sb.toString());
+    System.out.printf("[INFO] JUnit results written to: `%s`%n", file);
+  }
+}
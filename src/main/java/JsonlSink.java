@@ -0,0 +1,148 @@
+/**
+ * @file JsonlSink.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief JSON Lines sink of the test events.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.util.List;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.io.BufferedWriter;
+import java.util.LinkedHashMap;
+import org.testng.ITestResult;
+import java.nio.charset.StandardCharsets;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.JsonOutput;
+
+/**
+ * @class JsonlSink
+ * @brief Append every test event as a JSON line to `target/report/events.jsonl`
+ (or `events-<shard>.jsonl` if sharded).
+
+ Screenshots are recorded without their image data to keep the file small.
+*/
+public final class JsonlSink implements EventSink {
+  private final Json json = new Json();
+  private BufferedWriter out;
+
+  /**
+   * @brief Consume a single event.
+   * @param e Event object.
+   */
+  @Override
+  public void accept(Event e) throws IOException {
+    if (e.type == Event.Type.BARRIER) {
+      if (out != null) out.flush();
+      return;
+    }
+    if (out == null) {
+      Path file = ConfigParameters.isSharded()
+        ? Paths.get("target/report", String.format("events-%d.jsonl", ConfigParameters.getShardIndex()))
+        : Paths.get("target/report", "events.jsonl");
+      Files.createDirectories(file.getParent());
+      out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+    StringBuilder line = new StringBuilder();
+    try (JsonOutput o = json.newOutput(line)) {
+      o.setPrettyPrint(false).write(toMap(e));
+    }
+    out.write(line.toString());
+    out.newLine();
+    switch (e.type) {
+    case CLASS_END:
+      out.flush();
+      break;
+    case SUITE_END:
+      out.close();
+      out = null;
+      break;
+    default:
+    }
+  }
+
+  /**
+   * @brief Convert an event into a JSON serializable map.
+   * @param e Event object.
+   * @return Map with the non-empty fields of the event.
+   */
+  private static Map<String, Object> toMap(Event e) {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("type", e.type.name());
+    m.put("time", Instant.ofEpochMilli(e.time).toString());
+    if (e.id != 0) m.put("id", e.id);
+    if (e.parent != 0) m.put("parent", e.parent);
+    if (e.name != null) m.put("name", e.name);
+    if (e.level != null) m.put("level", e.level);
+    if (e.message != null) m.put("message", e.message);
+    if (e.result != null) {
+      ITestResult r = e.result;
+      m.put("testclass", r.getTestClass().getName());
+      m.put("method", r.getName());
+      if (r.getAttribute("browser") != null) m.put("browser", r.getAttribute("browser"));
+    }
+    if (e.context != null) m.put("context", e.context.getName());
+    switch (e.type) {
+    case METRIC:
+    case SUITE_END:
+      if (e.data != null) m.put("data", e.data);
+      break;
+    case TEST:
+      ReportEntry entry = (ReportEntry) e.data;
+      m.put("start", Instant.ofEpochMilli(entry.start).toString());
+      m.put("end", Instant.ofEpochMilli(entry.end).toString());
+      m.put("items", toList(entry.items));
+      List<Object> steps = new ArrayList<>();
+      for (ReportEntry step : entry.steps) {
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("id", step.id);
+        s.put("name", step.name);
+        s.put("start", Instant.ofEpochMilli(step.start).toString());
+        s.put("end", Instant.ofEpochMilli(step.end).toString());
+        s.put("items", toList(step.items));
+        steps.add(s);
+      }
+      m.put("steps", steps);
+      break;
+    case TEST_END:
+      ITestResult r = e.result;
+      m.put("duration", r.getEndMillis() - r.getStartMillis());
+      if (r.getAttribute("body") != null) m.put("body", (long) r.getAttribute("body") / 1000000);
+      if (r.getAttribute("session") != null) m.put("session", (long) r.getAttribute("session") / 1000000);
+      if ((long) e.data >= 0) m.put("teardown", (long) e.data / 1000000);
+      if (r.getAttribute("error") != null && !"".equals(r.getAttribute("error"))) m.put("error", r.getAttribute("error"));
+      break;
+    default:
+    }
+    return m;
+  }
+
+  /**
+   * @brief Convert the items of a report entry into a JSON serializable list.
+   * @param items Items of a ReportEntry object.
+   * @return List with a map per item.
+   */
+  private static List<Object> toList(List<ReportEntry.Item> items) {
+    List<Object> l = new ArrayList<>();
+    for (ReportEntry.Item item : items) {
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put("type", item.type.name());
+      m.put("time", Instant.ofEpochMilli(item.time).toString());
+      if (item.level != null) m.put("level", item.level);
+      if (item.message != null) m.put("message", item.message);
+      if (item.type == Event.Type.FAILURE) m.put("error", item.data.getClass().getName());
+      l.add(m);
+    }
+    return l;
+  }
+}
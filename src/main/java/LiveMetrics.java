@@ -0,0 +1,312 @@
+/**
+ * @file LiveMetrics.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Live run-progress metrics served from the test JVM.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.net.InetSocketAddress;
+import com.sun.net.httpserver.HttpServer;
+import java.nio.charset.StandardCharsets;
+import com.sun.net.httpserver.HttpExchange;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @class LiveMetrics
+ * @brief Lock-free run counters exposed in Prometheus text format on `/metrics`.
+
+ Counters are updated from the ExecutionListener and BaseTest hooks and only
+ read when the endpoint is scraped. Served by the JDK built-in HTTP server on
+ `metrics_port`; disabled (but still counting) if not set.
+*/
+public final class LiveMetrics {
+  private static final double[] SESSION_BUCKETS = { 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300 };
+  private static final long start = System.nanoTime();
+  private static HttpServer server;
+
+  private static final LongAdder started = new LongAdder();
+  private static final LongAdder passed = new LongAdder();
+  private static final LongAdder failed = new LongAdder();
+  private static final LongAdder skipped = new LongAdder();
+  private static final AtomicLong running = new AtomicLong();
+  private static final AtomicLong sessions = new AtomicLong();
+  private static final LongAdder[] session_buckets = new LongAdder[SESSION_BUCKETS.length + 1];
+  private static final LongAdder session_count = new LongAdder();
+  private static final LongAdder session_nanos = new LongAdder();
+  private static final AtomicLong tabs = new AtomicLong();
+  private static final LongAdder acquire_count = new LongAdder();
+  private static final LongAdder acquire_nanos = new LongAdder();
+  private static final AtomicLong influxdb_pending = new AtomicLong();
+  private static final LongAdder flush_count = new LongAdder();
+  private static final LongAdder flush_nanos = new LongAdder();
+  private static final AtomicLong flush_last_nanos = new AtomicLong();
+  private static final LongAdder body_count = new LongAdder();
+  private static final LongAdder body_nanos = new LongAdder();
+  private static final LongAdder teardown_count = new LongAdder();
+  private static final LongAdder teardown_nanos = new LongAdder();
+
+  static {
+    for (int i = 0; i < session_buckets.length; i++) session_buckets[i] = new LongAdder();
+  }
+
+  /**
+   * @brief Start serving the metrics endpoint.
+   * @param port TCP port to listen on.
+   */
+  protected static synchronized void start(int port) {
+    if (server != null) return;
+    try {
+      server = HttpServer.create(new InetSocketAddress(port), 0);
+      server.createContext("/metrics", LiveMetrics::handle);
+      server.start();
+      System.out.printf("[INFO] Live metrics available at: `http://localhost:%d/metrics`%n", port);
+    }
+    catch (IOException e) {
+      String warn = String.format("[WARNING] Could not start live metrics endpoint on port %d", port);
+      BaseTest.log.warn(warn);
+      System.out.println(warn);
+      server = null;
+    }
+  }
+
+  /**
+   * @brief Stop serving the metrics endpoint.
+   */
+  protected static synchronized void stop() {
+    if (server == null) return;
+    server.stop(0);
+    server = null;
+  }
+
+  /**
+   * @brief Handle a scrape of the metrics endpoint.
+   * @param exchange HttpExchange object of the request.
+   */
+  private static void handle(HttpExchange exchange) throws IOException {
+    byte[] body = render().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  /**
+   * @brief Record the start of a test method body.
+   */
+  protected static void testStarted() {
+    started.increment();
+    running.incrementAndGet();
+  }
+
+  /**
+   * @brief Record the end of a test method body.
+   * @param status Final result of the test case (PASS, FAIL or SKIPPED).
+   * @param wasRunning False if the body never started (e.g. skipped by its setup).
+   */
+  protected static void testFinished(String status, boolean wasRunning) {
+    if (wasRunning) running.decrementAndGet();
+    if (status.equals("PASS")) passed.increment();
+    else if (status.equals("FAIL")) failed.increment();
+    else skipped.increment();
+  }
+
+  /**
+   * @brief Record the time spent on a test method body.
+   * @param nanos Time spent running the body (ns).
+   */
+  protected static void testBody(long nanos) {
+    body_count.increment();
+    body_nanos.add(nanos);
+  }
+
+  /**
+   * @brief Record the time spent on a test case teardown.
+   * @param nanos Time spent tearing down the test case (ns).
+   */
+  protected static void teardown(long nanos) {
+    teardown_count.increment();
+    teardown_nanos.add(nanos);
+  }
+
+  /**
+   * @brief Record the acquisition of the web driver of a test case.
+   * @param nanos Time spent obtaining the driver (new session or shared tab) (ns).
+   */
+  protected static void sessionAcquired(long nanos) {
+    acquire_count.increment();
+    acquire_nanos.add(nanos);
+  }
+
+  /**
+   * @brief Record the creation of a browser session (not of shared-session tabs).
+   * @param nanos Time spent creating the session (ns).
+   */
+  protected static void sessionCreated(long nanos) {
+    sessions.incrementAndGet();
+    session_count.increment();
+    session_nanos.add(nanos);
+    double seconds = nanos / 1e9;
+    int i = 0;
+    while (i < SESSION_BUCKETS.length && seconds > SESSION_BUCKETS[i]) i++;
+    session_buckets[i].increment();
+  }
+
+  /**
+   * @brief Record the shutdown of a browser session.
+   */
+  protected static void sessionQuitted() {
+    sessions.decrementAndGet();
+  }
+
+  /**
+   * @brief Record a tab opened in a shared browser session.
+   */
+  protected static void tabOpened() {
+    tabs.incrementAndGet();
+  }
+
+  /**
+   * @brief Record a tab closed in a shared browser session.
+   */
+  protected static void tabClosed() {
+    tabs.decrementAndGet();
+  }
+
+  /**
+   * @brief Record a data point about to be written to InfluxDB.
+   */
+  protected static void influxdbQueued() {
+    influxdb_pending.incrementAndGet();
+  }
+
+  /**
+   * @brief Record a data point written (or discarded) to InfluxDB.
+   */
+  protected static void influxdbDone() {
+    influxdb_pending.decrementAndGet();
+  }
+
+  /**
+   * @brief Record a report flush.
+   * @param nanos Time spent flushing the report (ns).
+   */
+  protected static void reportFlushed(long nanos) {
+    flush_count.increment();
+    flush_nanos.add(nanos);
+    flush_last_nanos.set(nanos);
+  }
+
+  /**
+   * @brief Append a single metric in Prometheus text format.
+   * @param sb StringBuilder to append to.
+   * @param name Name of the metric.
+   * @param type Type of the metric (counter or gauge).
+   * @param help Description of the metric.
+   * @param value Value of the metric.
+   */
+  private static void metric(StringBuilder sb, String name, String type, String help, double value) {
+    sb.append(String.format("# HELP %s %s%n# TYPE %s %s%n%s %s%n", name, help, name, type, name, format(value)));
+  }
+
+  /**
+   * @brief Append a summary (sum and count only) in Prometheus text format.
+   * @param sb StringBuilder to append to.
+   * @param name Name of the metric.
+   * @param help Description of the metric.
+   * @param nanos Total time (ns).
+   * @param count Amount of observations.
+   */
+  private static void summary(StringBuilder sb, String name, String help, long nanos, long count) {
+    sb.append(String.format("# HELP %s %s%n# TYPE %s summary%n", name, help, name));
+    sb.append(String.format("%s_sum %s%n", name, format(nanos / 1e9)));
+    sb.append(String.format("%s_count %d%n", name, count));
+  }
+
+  /**
+   * @brief Format a time breakdown entry as `total (count, avg)`.
+   * @param nanos Total time (ns).
+   * @param count Amount of observations.
+   * @return Formatted entry.
+   */
+  private static String phase(long nanos, long count) {
+    return String.format("%.1f s (%d, avg %.2f s)", nanos / 1e9, count, count == 0 ? 0 : nanos / 1e9 / count);
+  }
+
+  /**
+   * @brief Obtain the suite-level time breakdown per phase.
+   * @return Phase names and their formatted times.
+   */
+  protected static Map<String, String> breakdown() {
+    Map<String, String> phases = new LinkedHashMap<>();
+    phases.put("Session acquisition", phase(acquire_nanos.sum(), acquire_count.sum()));
+    phases.put("Test body", phase(body_nanos.sum(), body_count.sum()));
+    phases.put("Teardown", phase(teardown_nanos.sum(), teardown_count.sum()));
+    phases.put("Report flush", phase(flush_nanos.sum(), flush_count.sum()));
+    return phases;
+  }
+
+  /**
+   * @brief Format a metric value as Prometheus expects it.
+   * @param value Value of the metric.
+   * @return Formatted value.
+   */
+  private static String format(double value) {
+    return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+  }
+
+  /**
+   * @brief Render all metrics in Prometheus text format.
+   * @return Metrics as String.
+   */
+  protected static String render() {
+    StringBuilder sb = new StringBuilder();
+    long finished = passed.sum() + failed.sum() + skipped.sum();
+    double minutes = (System.nanoTime() - start) / 6e10;
+    long open = sessions.get();
+    long busy = running.get();
+
+    metric(sb, "mat_tests_started_total", "counter", "Test methods started.", started.sum());
+    metric(sb, "mat_tests_passed_total", "counter", "Test methods passed.", passed.sum());
+    metric(sb, "mat_tests_failed_total", "counter", "Test methods failed.", failed.sum());
+    metric(sb, "mat_tests_skipped_total", "counter", "Test methods skipped.", skipped.sum());
+    metric(sb, "mat_tests_per_minute", "gauge", "Test methods finished per minute since the suite started.",
+           minutes > 0 ? finished / minutes : 0);
+    metric(sb, "mat_sessions_active", "gauge", "Browser sessions running a test method body.", Math.min(open, busy));
+    metric(sb, "mat_sessions_idle", "gauge", "Browser sessions open but not running a test method body.",
+           Math.max(0, open - busy));
+
+    String name = "mat_session_creation_seconds";
+    sb.append(String.format("# HELP %s Browser session creation latency.%n# TYPE %s histogram%n", name, name));
+    long cumulative = 0;
+    for (int i = 0; i < SESSION_BUCKETS.length; i++) {
+      cumulative += session_buckets[i].sum();
+      sb.append(String.format("%s_bucket{le=\"%s\"} %d%n", name, format(SESSION_BUCKETS[i]), cumulative));
+    }
+    cumulative += session_buckets[SESSION_BUCKETS.length].sum();
+    sb.append(String.format("%s_bucket{le=\"+Inf\"} %d%n", name, cumulative));
+    sb.append(String.format("%s_sum %s%n", name, format(session_nanos.sum() / 1e9)));
+    sb.append(String.format("%s_count %d%n", name, session_count.sum()));
+    metric(sb, "mat_session_tabs", "gauge", "Tabs open in shared browser sessions (tabs_per_session).", tabs.get());
+    summary(sb, "mat_session_acquisition_seconds", "Time spent obtaining the driver of test cases (session or shared tab).",
+            acquire_nanos.sum(), acquire_count.sum());
+
+    metric(sb, "mat_influxdb_queue_depth", "gauge", "Data points pending to be written to InfluxDB.", influxdb_pending.get());
+    metric(sb, "mat_event_queue_depth", "gauge", "Test events pending to be dispatched to the sinks.", EventBus.depth());
+    summary(sb, "mat_test_body_seconds", "Time spent running test method bodies.", body_nanos.sum(), body_count.sum());
+    summary(sb, "mat_teardown_seconds", "Time spent tearing down test cases.", teardown_nanos.sum(), teardown_count.sum());
+    summary(sb, "mat_report_flush_seconds", "Time spent flushing the report.", flush_nanos.sum(), flush_count.sum());
+    metric(sb, "mat_report_flush_last_seconds", "gauge", "Time spent on the last report flush.", flush_last_nanos.get() / 1e9);
+    return sb.toString();
+  }
+}
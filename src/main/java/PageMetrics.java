@@ -0,0 +1,144 @@
+/**
+ * @file PageMetrics.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Page-load performance metrics of the application under test.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.util.List;
+import org.testng.Reporter;
+import org.testng.ITestResult;
+import java.util.LinkedHashMap;
+import org.openqa.selenium.JavascriptExecutor;
+
+/**
+ * @class PageMetrics
+ * @brief Collect Navigation and Paint Timing entries of the current page.
+
+ A cheap synchronous probe runs first, so calls on a page already reported
+ (i.e. most test steps) cost a single round trip. New navigations are then
+ gathered in one asynchronous script call, which may wait (up to
+ LOAD_WAIT_MS, after explicit navigations only) for the load event to end
+ and drains the buffered LCP/layout-shift entries with takeRecords(), so
+ none depends on observer callback timing. Each navigation is identified by
+ its `performance.timeOrigin` and reported once, as soon as its load event
+ has been seen.
+*/
+public final class PageMetrics {
+  private static final int LOAD_WAIT_MS = 3000;
+  private static final String PROBE =
+    "var nav = performance.getEntriesByType('navigation')[0];" +
+    "return [performance.timeOrigin, !nav || nav.loadEventEnd > 0];";
+  private static final String SCRIPT =
+    "var done = arguments[arguments.length - 1];" +
+    "var r = {origin: performance.timeOrigin, url: location.href};" +
+    "var observers = [], deadline = Date.now() + arguments[0];" +
+    "function observe(type, cb) {" +
+    "  if (!window.PerformanceObserver || !PerformanceObserver.supportedEntryTypes ||" +
+    "      PerformanceObserver.supportedEntryTypes.indexOf(type) == -1) return;" +
+    "  var o = new PerformanceObserver(function(l) { cb(l.getEntries()); });" +
+    "  o.observe({type: type, buffered: true});" +
+    "  observers.push([o, cb]);" +
+    "}" +
+    "observe('largest-contentful-paint', function(es) {" +
+    "  if (es.length) r.lcp = es[es.length - 1].startTime;" +
+    "});" +
+    "observe('layout-shift', function(es) {" +
+    "  r.cls = r.cls || 0;" +
+    "  es.forEach(function(e) { if (!e.hadRecentInput) r.cls += e.value; });" +
+    "});" +
+    "function finish() {" +
+    "  var nav = performance.getEntriesByType('navigation')[0];" +
+    "  if (nav && nav.loadEventEnd == 0 && Date.now() < deadline) return setTimeout(finish, 50);" +
+    "  if (nav) {" +
+    "    r.ttfb = nav.responseStart - nav.startTime;" +
+    "    if (nav.domContentLoadedEventEnd > 0) r.dcl = nav.domContentLoadedEventEnd - nav.startTime;" +
+    "    if (nav.loadEventEnd > 0) r.load = nav.loadEventEnd - nav.startTime;" +
+    "  }" +
+    "  r.loaded = !nav || nav.loadEventEnd > 0;" +
+    "  var fcp = performance.getEntriesByName('first-contentful-paint')[0];" +
+    "  if (fcp) r.fcp = fcp.startTime;" +
+    "  observers.forEach(function(o) { o[1](o[0].takeRecords()); o[0].disconnect(); });" +
+    "  done(r);" +
+    "}" +
+    "finish();";
+  private static final String[] METRICS = { "ttfb", "dcl", "load", "fcp", "lcp", "cls" };
+  private static ThreadLocal<Double> origin = new ThreadLocal<>();
+
+  /**
+   * @brief Collect the metrics of the current page if not collected yet.
+
+   Metrics are sent to InfluxDB as a `pageload` data point and a summary is
+   attached to the current test step (or test case if no step is defined).
+   Pages still loading are skipped without waiting and retried on the next call.
+   */
+  protected static void collect() {
+    collect(false);
+  }
+
+  /**
+   * @brief Collect the metrics of the current page if not collected yet.
+   * @param wait Wait (up to LOAD_WAIT_MS) for the load event to end (i.e. right after an explicit navigation).
+   */
+  protected static void collect(boolean wait) {
+    if (!ConfigParameters.page_metrics || BaseTest.getDriver() == null) return;
+    Map<?, ?> raw;
+    try {
+      JavascriptExecutor js = (JavascriptExecutor) BaseTest.getDriver();
+      List<?> probe = (List<?>) js.executeScript(PROBE);
+      Double current = toDouble(probe.get(0));
+      if (current == null || current.equals(origin.get())) return;
+      if (!wait && !Boolean.TRUE.equals(probe.get(1))) return;
+      raw = (Map<?, ?>) js.executeAsyncScript(SCRIPT, wait ? LOAD_WAIT_MS : 0);
+    }
+    catch (Exception e) {
+      String warn = "[WARNING] PageMetrics.collect :: could not obtain page-load metrics";
+      BaseTest.log.warn(warn);
+      System.out.println(warn);
+      return;
+    }
+    Double current = toDouble(raw.get("origin"));
+    if (current == null || current.equals(origin.get())) return;
+    // Not loaded yet (i.e. navigation still in progress): report it on the next call
+    if (!Boolean.TRUE.equals(raw.get("loaded"))) return;
+    origin.set(current);
+
+    Map<String, Double> metrics = new LinkedHashMap<>();
+    StringBuilder summary = new StringBuilder("Page load :: ");
+    for (String name : METRICS) {
+      Double value = toDouble(raw.get(name));
+      if (value == null) continue;
+      metrics.put(name, value);
+      summary.append(name.equals("cls")
+                     ? String.format("%s=%.3f ", name, value)
+                     : String.format("%s=%.0fms ", name, value));
+    }
+    String url = String.valueOf(raw.get("url"));
+    BaseTest.log.info(String.format("%s(%s)", summary, url));
+    ExtentManager.log(Utils.LogLevel.INFO, summary.toString().trim());
+    ITestResult r = Reporter.getCurrentTestResult();
+    if (r != null) EventBus.publish(Event.metric(r, "pageload", url, metrics));
+  }
+
+  /**
+   * @brief Forget the last collected navigation of the current thread.
+   */
+  protected static void reset() {
+    origin.remove();
+  }
+
+  /**
+   * @brief Convert a value returned by the web driver to Double.
+   * @param value Number returned by the script (Long or Double) or null.
+   * @return Double object, or null if not a number.
+   */
+  private static Double toDouble(Object value) {
+    return value instanceof Number ? ((Number) value).doubleValue() : null;
+  }
+}
@@ -0,0 +1,27 @@
+/**
+ * @file RealBrowser.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Marker for tests which can not run on in-process browsers.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.lang.annotation.Target;
+import java.lang.annotation.Retention;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * @class RealBrowser
+ * @brief Skip the annotated test method (or all methods of the annotated class) on `htmlunit`.
+
+ Use it for tests relying on real-browser features such as screenshots,
+ layout, CDP or visual checks.
+*/
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface RealBrowser {}
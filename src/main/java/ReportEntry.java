@@ -0,0 +1,113 @@
+/**
+ * @file ReportEntry.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Thread-confined buffer of a report entry.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.List;
+import java.util.ArrayList;
+import com.aventstack.extentreports.ExtentTest;
+
+/**
+ * @class ReportEntry
+ * @brief Test case (or test step) recorded locally by the thread running it.
+
+ Nothing is shared until the test case ends: the whole tree is then handed
+ to the EventBus as a single event and ExtentSink merges it into the report.
+ Only the deprecated ExtentTest accessors of ExtentManager create the report
+ node earlier (`legacy`), and ExtentSink then writes into that one.
+*/
+public final class ReportEntry {
+  /**
+   * @brief Single item (annotation, screenshot or failure) of an entry.
+   */
+  protected static final class Item {
+    protected final Event.Type type;
+    protected final long time = System.currentTimeMillis();
+    protected final String level;
+    protected final String message;
+    protected final Object data;
+
+    private Item(Event.Type type, String level, String message, Object data) {
+      this.type = type;
+      this.level = level;
+      this.message = message;
+      this.data = data;
+    }
+  }
+
+  protected final long id;
+  protected final String name;
+  protected final String browser;
+  protected final long start = System.currentTimeMillis();
+  protected long end;
+  protected final List<Item> items = new ArrayList<>();
+  protected final List<ReportEntry> steps = new ArrayList<>();
+  protected ExtentTest legacy;
+
+  /**
+   * @brief Create a new entry.
+   * @param id Id of the entry (unique within the suite).
+   * @param name Name of the test case or test step.
+   * @param browser Name of the browser the test case runs on (null for steps).
+   */
+  protected ReportEntry(long id, String name, String browser) {
+    this.id = id;
+    this.name = name;
+    this.browser = browser;
+  }
+
+  /**
+   * @brief Create a new test step inside this entry.
+   * @param id Id of the test step.
+   * @param name Name of the test step.
+   * @return Test step entry.
+   */
+  protected ReportEntry step(long id, String name) {
+    if (!steps.isEmpty()) steps.get(steps.size() - 1).close();
+    ReportEntry step = new ReportEntry(id, name, null);
+    steps.add(step);
+    return step;
+  }
+
+  /**
+   * @brief Record an annotation.
+   * @param level Logging level to use.
+   * @param msg Message to write inside the annotation.
+   */
+  protected void annotate(Utils.LogLevel level, String msg) {
+    items.add(new Item(Event.Type.ANNOTATION, level.name(), msg, null));
+  }
+
+  /**
+   * @brief Record a screenshot.
+   * @param base64 Screenshot encoded in base64.
+   * @param caption Description of the screenshot.
+   */
+  protected void screenshot(String base64, String caption) {
+    items.add(new Item(Event.Type.SCREENSHOT, null, caption, base64));
+  }
+
+  /**
+   * @brief Record a failure.
+   * @param e Throwable which represents the error.
+   */
+  protected void fail(Throwable e) {
+    items.add(new Item(Event.Type.FAILURE, null, e.getMessage(), e));
+  }
+
+  /**
+   * @brief Close the entry and all its test steps.
+   */
+  protected void close() {
+    if (end != 0) return;
+    end = System.currentTimeMillis();
+    for (ReportEntry step : steps) step.close();
+  }
+}
@@ -27,7 +27,8 @@ public final class ResultSender {
    * @brief Instantiate the InfluxDB client and its write API.
    * @return True if instantiated correctly, false otherwise.
    */
-  protected static boolean setup() {
+  protected static synchronized boolean setup() {
+    if (influxdb_api != null) return true;
     if (ConfigParameters.influxdb_url     == null ||
         ConfigParameters.influxdb_token   == null ||
         ConfigParameters.influxdb_company == null ||
@@ -45,6 +46,18 @@ public final class ResultSender {
    * @param p Data entry to write as a Point object.
    */
   protected static void send(final Point p) {
-    influxdb_api.writePoint(p);
+    LiveMetrics.influxdbQueued();
+    try { influxdb_api.writePoint(p); }
+    finally { LiveMetrics.influxdbDone(); }
+  }
+
+  /**
+   * @brief Release the InfluxDB client.
+   */
+  protected static synchronized void close() {
+    if (influxdb_client == null) return;
+    influxdb_client.close();
+    influxdb_client = null;
+    influxdb_api = null;
   }
 }
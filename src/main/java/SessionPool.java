@@ -0,0 +1,314 @@
+/**
+ * @file SessionPool.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Browser sessions shared by several concurrent tests.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.lang.reflect.Method;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.NoSuchFrameException;
+import org.openqa.selenium.remote.Augmenter;
+import org.openqa.selenium.devtools.DevTools;
+import org.openqa.selenium.devtools.HasDevTools;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.support.decorators.Decorated;
+import org.openqa.selenium.support.decorators.WebDriverDecorator;
+
+/**
+ * @class SessionPool
+ * @brief Multiplex several tests onto one Selenium session, each in its own tab.
+
+ WebDriver commands always target the session's current tab, so every
+ command of a test goes through a decorator which takes the session lock and
+ switches to the test's tab (and frames) first. Commands of tests sharing a
+ session are thus interleaved, not run simultaneously. Sessions stay open
+ for reuse until the suite ends.
+
+ Each tab is opened in a browser context of its own (CDP
+ `Target.createBrowserContext`), so tests never share cookies nor storage.
+ Only Chromium browsers support it: with any other browser, or without CDP,
+ `tabs_per_session` > 1 is rejected.
+*/
+public final class SessionPool {
+  private static final List<Session> sessions = new ArrayList<>();
+  private static final Map<WebDriver, Binding> bindings = Collections.synchronizedMap(new IdentityHashMap<>());
+
+  /**
+   * @class Session
+   * @brief Selenium session and the tests bound to it.
+   */
+  private static final class Session {
+    private final String browser;
+    private final RemoteWebDriver driver;
+    private final String anchor;
+    private final DevTools tools;
+    private final ReentrantLock lock = new ReentrantLock();
+    private Binding active;
+    private int tabs;
+    private volatile boolean broken;
+
+    private Session(String browser, RemoteWebDriver driver) {
+      this.browser = browser;
+      this.driver = driver;
+      this.anchor = driver.getWindowHandle();
+      this.tools = ((HasDevTools) new Augmenter().augment(driver)).getDevTools();
+      tools.createSessionIfThereIsNotOne();
+    }
+
+    /**
+     * @brief Open a tab in a new browser context and make it the current one.
+     * @return Binding object of the tab.
+     */
+    private Binding open() {
+      String context = (String) tools.send(BrowserEvents.query("Target.createBrowserContext", Map.of()))
+        .get("browserContextId");
+      String target = (String) tools.send(BrowserEvents.query("Target.createTarget",
+                                                              Map.of("url", "about:blank", "browserContextId", context)))
+        .get("targetId");
+      Binding binding = new Binding(this, null, context);
+      // Chromium window handles are (or end with) the target id
+      for (String handle : driver.getWindowHandles()) {
+        if (handle.endsWith(target)) binding.handle = handle;
+      }
+      if (binding.handle == null) {
+        dispose(context);
+        throw new WebDriverException(String.format("Window of target %s not found", target));
+      }
+      driver.switchTo().window(binding.handle);
+      active = binding;
+      return binding;
+    }
+
+    /**
+     * @brief Dispose a browser context (and close its tabs).
+     * @param context Id of the browser context.
+     */
+    private void dispose(String context) {
+      tools.send(BrowserEvents.command("Target.disposeBrowserContext", Map.of("browserContextId", context)));
+    }
+  }
+
+  /**
+   * @class Binding
+   * @brief Tab (and selected frames) of a single test within a session.
+   */
+  private static final class Binding extends WebDriverDecorator<RemoteWebDriver> {
+    private final Session session;
+    private final String context;
+    private String handle;
+    private final List<Object> frames = new ArrayList<>();
+
+    private Binding(Session session, String handle, String context) {
+      super(RemoteWebDriver.class);
+      this.session = session;
+      this.handle = handle;
+      this.context = context;
+    }
+
+    /**
+     * @brief Make the test's tab and frames the current ones of the session.
+
+     Frames which no longer exist (i.e. the page changed since they were
+     selected) are forgotten and the tab is left on its top-level document.
+     */
+    private void activate() {
+      if (session.active == this) return;
+      WebDriver.TargetLocator to = session.driver.switchTo();
+      to.window(handle);
+      try {
+        for (Object frame : frames) {
+          if (frame instanceof Integer) to.frame((Integer) frame);
+          else if (frame instanceof String) to.frame((String) frame);
+          else to.frame((WebElement) frame);
+        }
+      }
+      catch (StaleElementReferenceException | NoSuchFrameException e) {
+        frames.clear();
+        to.defaultContent();
+      }
+      session.active = this;
+    }
+
+    /**
+     * @brief Keep track of the frame and tab selection changes made by the test.
+     * @param method Method called on the original TargetLocator.
+     * @param args Arguments of the call.
+     */
+    private void track(Method method, Object[] args) {
+      switch (method.getName()) {
+      case "frame":
+        Object frame = args[0];
+        if (frame instanceof WebElement && frame instanceof Decorated) frame = ((Decorated<?>) frame).getOriginal();
+        frames.add(frame);
+        break;
+      case "parentFrame":
+        if (!frames.isEmpty()) frames.remove(frames.size() - 1);
+        break;
+      case "defaultContent":
+        frames.clear();
+        break;
+      case "window":
+      case "newWindow":
+        handle = session.driver.getWindowHandle();
+        frames.clear();
+        break;
+      default:
+      }
+    }
+
+    @Override
+    public Object call(Decorated<?> target, Method method, Object[] args) throws Throwable {
+      session.lock.lock();
+      try {
+        activate();
+        Object original = target.getOriginal();
+        // Loading a page leaves the tab on its top-level document
+        if (original instanceof WebDriver.Navigation ||
+            (original instanceof WebDriver && method.getName().equals("get"))) frames.clear();
+        Object result = super.call(target, method, args);
+        if (original instanceof WebDriver.TargetLocator) track(method, args);
+        return result;
+      }
+      finally {
+        session.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * @brief Open a new tab for a test, in a session with free room (or a new one).
+   * @param browser Name of the browser to run the test on.
+   * @param max Maximum amount of tests per session.
+   * @return RemoteWebDriver object bound to the test's tab.
+   */
+  protected static RemoteWebDriver acquire(String browser, int max) {
+    if (!browser.equals("chrome") && !browser.equals("edge")) {
+      reject(String.format("browser contexts are only available on chrome and edge (%s)", browser));
+    }
+    while (true) {
+      Session session = null;
+      synchronized (sessions) {
+        for (Session s : sessions) {
+          if (!s.broken && s.browser.equals(browser) && s.tabs < max) {
+            session = s;
+            break;
+          }
+        }
+        if (session != null) session.tabs++;
+      }
+      boolean reused = session != null;
+      if (!reused) {
+        long t0 = System.nanoTime();
+        RemoteWebDriver rwd = (RemoteWebDriver) BaseTest.createDriver(browser);
+        try { session = new Session(browser, rwd); }
+        catch (Exception e) {
+          rwd.quit();
+          reject(String.format("CDP not supported by the %s session", browser));
+        }
+        LiveMetrics.sessionCreated(System.nanoTime() - t0);
+        session.tabs++;
+        synchronized (sessions) { sessions.add(session); }
+      }
+
+      session.lock.lock();
+      try {
+        Binding binding = session.open();
+        RemoteWebDriver driver = binding.decorate(session.driver);
+        bindings.put(driver, binding);
+        LiveMetrics.tabOpened();
+        return driver;
+      }
+      catch (RuntimeException e) {
+        // Reused sessions may have expired (i.e. grid idle timeout)
+        session.broken = true;
+        if (!reused) reject(String.format("could not open a browser context in the %s session", browser));
+        String warn = String.format("[WARNING] Shared %s session not available; opening a new one", browser);
+        System.out.println(warn);
+        BaseTest.log.warn(warn);
+      }
+      finally {
+        session.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * @brief Stop the execution when tests can not be isolated within a shared session.
+   * @param reason Reason why browser contexts are not available.
+   */
+  private static void reject(String reason) {
+    String err = String.format("[ERROR] tabs_per_session > 1 requires a browser context per test: %s", reason);
+    System.err.println(err);
+    BaseTest.log.error(err);
+    System.exit(1);
+  }
+
+  /**
+   * @brief Check whether a web driver is bound to a shared session.
+   * @param driver WebDriver object.
+   * @return True if shared, false otherwise.
+   */
+  protected static boolean isShared(WebDriver driver) {
+    return driver != null && bindings.containsKey(driver);
+  }
+
+  /**
+   * @brief Close the test's tab, keeping the session open for other tests.
+   * @param driver WebDriver object returned by acquire().
+   */
+  protected static void release(WebDriver driver) {
+    Binding binding = bindings.remove(driver);
+    if (binding == null) return;
+    LiveMetrics.tabClosed();
+    Session session = binding.session;
+    session.lock.lock();
+    try {
+      session.driver.switchTo().window(binding.handle);
+      session.driver.close();
+      session.driver.switchTo().window(session.anchor);
+      session.dispose(binding.context);
+    }
+    catch (RuntimeException e) {
+      session.broken = true;
+      String err = String.format("[ERROR] Could not close tab of shared %s session", session.browser);
+      System.err.println(err);
+      BaseTest.log.error(err);
+    }
+    finally {
+      session.active = null;
+      session.lock.unlock();
+    }
+    synchronized (sessions) { session.tabs--; }
+  }
+
+  /**
+   * @brief Quit all shared sessions.
+   */
+  protected static void shutdown() {
+    synchronized (sessions) {
+      for (Session s : sessions) {
+        try { s.tools.close(); }
+        catch (RuntimeException e) {}
+        try { s.driver.quit(); }
+        catch (WebDriverException e) {}
+        LiveMetrics.sessionQuitted();
+      }
+      sessions.clear();
+    }
+  }
+}
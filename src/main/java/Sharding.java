@@ -0,0 +1,167 @@
+/**
+ * @file Sharding.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Suite sharding across JVMs and shard reports merging.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.io.File;
+import java.util.Map;
+import java.util.List;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.HashMap;
+import org.testng.ISuite;
+import java.util.WeakHashMap;
+import org.testng.ITestNGMethod;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.io.FileInputStream;
+import org.testng.ITestContext;
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+
+/**
+ * @class Sharding
+ * @brief Keep only the test methods assigned to the current shard.
+
+ Methods are assigned by weight (longest first, to the lightest shard), once
+ over all the methods of the suite (every `<test>` block), so every JVM
+ computes the same balanced assignment from the same suite. Weights are
+ read from the `shard_weights` properties file (`package.Class.method=weight`,
+ e.g. durations in ms of a previous run); unknown methods get the average
+ weight. Registered automatically via ServiceLoader; a no-op unless
+ `shard_count` is greater than 1.
+*/
+public final class Sharding implements IMethodInterceptor {
+  private static Map<String, Long> weights;
+  private static final Map<ISuite, Map<String, Integer>> assignments = new WeakHashMap<>();
+
+  /**
+   * @brief Filter out the test methods belonging to other shards.
+   * @param methods Test methods about to run.
+   * @param ctx ITestContext object of the tests block.
+   * @return Test methods of the current shard, in their original order.
+   */
+  @Override
+  public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext ctx) {
+    if (!ConfigParameters.isSharded()) return methods;
+    Map<String, Integer> assignment = getAssignment(ctx.getSuite());
+
+    List<IMethodInstance> own = new ArrayList<>();
+    for (IMethodInstance m : methods) {
+      String name = m.getMethod().getQualifiedName();
+      int shard = assignment.getOrDefault(name, Math.floorMod(name.hashCode(), ConfigParameters.getShardCount()));
+      if (shard == ConfigParameters.getShardIndex()) own.add(m);
+    }
+    String msg = String.format("[INFO] Shard %d/%d :: running %d of %d test methods (%s)",
+                               ConfigParameters.getShardIndex(), ConfigParameters.getShardCount(),
+                               own.size(), methods.size(), ctx.getName());
+    BaseTest.log.info(msg);
+    System.out.println(msg);
+    return own;
+  }
+
+  /**
+   * @brief Obtain the shard assignment of a suite, computed once over all its test methods.
+   * @param suite ISuite object of the running suite.
+   * @return Shard index of each test method.
+   */
+  private static synchronized Map<String, Integer> getAssignment(ISuite suite) {
+    return assignments.computeIfAbsent(suite, s -> {
+        TreeSet<String> names = new TreeSet<>();
+        for (ITestNGMethod m : s.getAllMethods()) names.add(m.getQualifiedName());
+        return assign(names, ConfigParameters.getShardCount());
+      });
+  }
+
+  /**
+   * @brief Assign test methods to shards by weight.
+   * @param names Qualified names of the test methods (sorted).
+   * @param count Amount of shards.
+   * @return Shard index of each test method.
+   */
+  private static Map<String, Integer> assign(TreeSet<String> names, int count) {
+    Map<String, Long> w = getWeights();
+    long fallback = w.isEmpty()
+      ? 1
+      : Math.max(1, w.values().stream().mapToLong(Long::longValue).sum() / w.size());
+    List<String> sorted = new ArrayList<>(names);
+    sorted.sort((a, b) -> {
+        int cmp = Long.compare(w.getOrDefault(b, fallback), w.getOrDefault(a, fallback));
+        return cmp != 0 ? cmp : a.compareTo(b);
+      });
+
+    long[] load = new long[count];
+    Map<String, Integer> assignment = new HashMap<>();
+    for (String name : sorted) {
+      int lightest = 0;
+      for (int i = 1; i < count; i++) {
+        if (load[i] < load[lightest]) lightest = i;
+      }
+      load[lightest] += w.getOrDefault(name, fallback);
+      assignment.put(name, lightest);
+    }
+    return assignment;
+  }
+
+  /**
+   * @brief Load the test methods weights file (once per JVM).
+   * @return Weight of each test method by qualified name.
+   */
+  private static synchronized Map<String, Long> getWeights() {
+    if (weights != null) return weights;
+    weights = new HashMap<>();
+    String filename = System.getProperty("shard_weights");
+    if (filename == null) return weights;
+    Properties properties = new Properties();
+    try (FileInputStream fd = new FileInputStream(filename)) {
+      properties.load(fd);
+    }
+    catch (IOException e) {
+      String warn = String.format("[WARNING] Could not load `%s` file; all test methods weigh the same", filename);
+      BaseTest.log.warn(warn);
+      System.out.println(warn);
+      return weights;
+    }
+    for (String name : properties.stringPropertyNames()) {
+      try { weights.put(name, Math.max(1, Long.parseLong(properties.getProperty(name).trim()))); }
+      catch (NumberFormatException e) {
+        System.out.printf("[WARNING] `%s` weight is not valid; ignoring it%n", name);
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * @brief Merge the reports exported by every shard into a single one.
+
+   Usage: `java cat.gencat.mat.Sharding <shard-N.json|directory>...`
+   The merged report is written to `target/report/index.html`.
+   * @param args Shard JSON archives, or directories containing them.
+   */
+  public static void main(String[] args) {
+    List<File> archives = new ArrayList<>();
+    for (String arg : args.length == 0 ? new String[] { "target/report" } : args) {
+      File f = new File(arg);
+      if (f.isDirectory()) {
+        File[] found = f.listFiles((dir, name) -> name.matches("shard-\\d+\\.json"));
+        if (found != null) archives.addAll(Arrays.asList(found));
+      }
+      else archives.add(f);
+    }
+    archives.sort((a, b) -> a.getName().compareTo(b.getName()));
+    if (archives.isEmpty()) {
+      System.err.println("[ERROR] No shard reports (`shard-N.json`) found to merge");
+      System.exit(1);
+    }
+    ExtentManager.merge(archives);
+    System.out.printf("[INFO] Merged %d shard reports into `target/report/index.html`%n", archives.size());
+  }
+}
@@ -11,7 +11,9 @@
 package cat.gencat.mat;
 
 import java.lang.Math;
+import java.io.IOException;
 import java.time.Duration;
+import org.testng.SkipException;
 import org.openqa.selenium.By;
 import java.lang.reflect.Method;
 import org.openqa.selenium.WebDriver;
@@ -20,7 +22,6 @@ import org.openqa.selenium.WebElement;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.JavascriptExecutor;
-import com.aventstack.extentreports.ExtentTest;
 import org.openqa.selenium.support.ui.WebDriverWait;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 
@@ -43,14 +44,42 @@ public final class Utils {
    * @brief Access to the app's URL provided via its configuration parameter.
    */
   public static void gotoApp() {
-    BaseTest.getDriver().navigate().to(ConfigParameters.app_url);
+    gotoURL(ConfigParameters.app_url);
+  }
+
+  /**
+   * @brief Access to a specific URL and collect its page-load metrics.
+   * @param url URL to navigate to.
+   */
+  public static void gotoURL(String url) {
+    BaseTest.getWebDriver().navigate().to(url);
+    PageMetrics.collect(true);
+  }
+
+  /**
+   * @brief Collect the page-load metrics of the current page (if not collected yet).
+
+   Useful after navigations not triggered via gotoApp or gotoURL (e.g. clicks).
+   */
+  public static void pageMetrics() {
+    PageMetrics.collect(true);
+  }
+
+  /**
+   * @brief Obtain the name of the browser the current test case runs on.
+
+   In fan-out mode (`browsers`) it may differ from the `browser` parameter.
+   * @return Name of the browser.
+   */
+  public static String getBrowser() {
+    return BaseTest.getBrowser();
   }
 
   /**
    * @brief Maximize the browser's window via the web driver.
    */
   public static void maximize() {
-    BaseTest.getDriver().manage().window().maximize();
+    BaseTest.getWebDriver().manage().window().maximize();
   }
 
   /**
@@ -69,7 +98,7 @@ public final class Utils {
    * @return WebElement object.
    */
   public static WebElement getElement(By selector) {
-    return getElement(BaseTest.getDriver(), selector);
+    return getElement(BaseTest.getWebDriver(), selector);
   }
 
   /**
@@ -91,7 +120,7 @@ public final class Utils {
    * @return WebElement object.
    */
   public static WebElement getElement(By selector, int timeout) {
-    return getElement(BaseTest.getDriver(), selector, timeout);
+    return getElement(BaseTest.getWebDriver(), selector, timeout);
   }
 
   /**
@@ -108,7 +137,7 @@ public final class Utils {
    * @return Entire HTML as String.
    */
   public static String getHTML() {
-    return getHTML(BaseTest.getDriver());
+    return getHTML(BaseTest.getWebDriver());
   }
 
   /**
@@ -117,7 +146,7 @@ public final class Utils {
    * @return WebDriver Driver focused on the selected frame.
    */
   public static WebDriver switchToFrame(int idx) {
-    return BaseTest.getDriver().switchTo().frame(idx);
+    return BaseTest.getWebDriver().switchTo().frame(idx);
   }
 
   /**
@@ -141,7 +170,7 @@ public final class Utils {
    */
   public static void scroll(int percent_x, int percent_y, int timeout) {
     timeout = Math.abs(timeout);
-    JavascriptExecutor js = (JavascriptExecutor) BaseTest.getDriver();
+    JavascriptExecutor js = (JavascriptExecutor) BaseTest.getWebDriver();
     float factor = (long) js.executeScript("return document.body.scrollHeight;") / 100;
     js.executeScript(String.format("window.scrollTo(%d, %d);", (long) (percent_x * factor), (long) (percent_y * factor)));
     try { Thread.sleep(timeout); }
@@ -173,6 +202,8 @@ public final class Utils {
    * @param name Name of the test step.
    */
   public static void step(String name) {
+    PageMetrics.collect();
+    if (ConfigParameters.forensics) Forensics.snapshot(name);
     ExtentManager.addNode(name);
   }
 
@@ -182,24 +213,13 @@ public final class Utils {
    * @param msg Message to write inside the annotation.
    */
   public static void anotate(LogLevel level, String msg) {
-    switch (level) {
-    case WARNING:
-      ExtentManager.getNode().warning(msg);
-      break;
-    case PASS:
-      ExtentManager.getNode().pass(msg);
-      break;
-    case SKIP:
-      ExtentManager.getNode().skip(msg);
-      break;
-    case INFO:
-      ExtentManager.getNode().info(msg);
-      break;
-    default:
+    if (level == null) {
       String warn = "[WARNING] `level` not valid; skipping anotation";
       BaseTest.log.warn(warn);
       System.out.println(warn);
+      return;
     }
+    ExtentManager.log(level, msg);
   }
 
   /**
@@ -207,7 +227,53 @@ public final class Utils {
    * @param caption Description to add to the screenshot.
    */
   public static void screenshot(String caption) {
-    ExtentManager.getNode().addScreenCaptureFromBase64String(BaseTest.getTS().getScreenshotAs(OutputType.BASE64), caption);
+    if (BaseTest.getTS() == null) {
+      ExtentManager.log(LogLevel.INFO, String.format("Screenshot not available in-process (%s)", caption));
+      return;
+    }
+    ExtentManager.screenshot(BaseTest.getTS().getScreenshotAs(OutputType.BASE64), caption);
+  }
+
+  /**
+   * @brief Compare the current browser's viewport against a stored baseline screenshot.
+
+   The baseline (`<visual_baselines>/<name>-<browser>.png`) is created on
+   first use or when `visual_update` is enabled. On mismatch a highlighted diff
+   image is written to `target/report/visual/` and linked in the report. The
+   test case is skipped when running in-process (no screenshots).
+   * @param name Name of the baseline.
+   * @param tolerance Maximum ratio of differing pixels (0.0 to 1.0).
+   */
+  public static void assertVisualMatch(String name, double tolerance) {
+    if (BaseTest.getTS() == null) {
+      throw new SkipException(String.format("Visual check requires a real browser (%s)", name));
+    }
+    VisualDiff.Result result;
+    try {
+      result = VisualDiff.check(name, getBrowser(), BaseTest.getTS().getScreenshotAs(OutputType.BYTES), tolerance);
+    }
+    catch (IOException e) {
+      String err = String.format("[ERROR] Utils.assertVisualMatch :: could not compare `%s` (%s)", name, e.getMessage());
+      System.err.println(err);
+      BaseTest.log.error(err);
+      ExtentManager.log(LogLevel.WARNING, err);
+      throw new AssertionError(err, e);
+    }
+    if (result.created) {
+      String msg = String.format("[INFO] Visual baseline created :: %s (`%s`); not compared", name, result.baseline);
+      System.out.println(msg);
+      BaseTest.log.info(msg);
+      ExtentManager.log(LogLevel.INFO, msg);
+      return;
+    }
+    if (result.match) {
+      ExtentManager.log(LogLevel.PASS, String.format("Visual match :: %s (%.2f%% differing pixels)", name, result.ratio * 100));
+      return;
+    }
+    String msg = String.format("Visual mismatch :: %s (>= %.2f%% differing pixels, tolerance %.2f%%)", name, result.ratio * 100, tolerance * 100);
+    ExtentManager.log(LogLevel.WARNING, String.format("%s :: <a href='%s'>diff</a>", msg, VisualDiff.link(result.diff)));
+    BaseTest.log.warn(String.format("%s :: %s", msg, result.diff));
+    throw new AssertionError(msg);
   }
 
   /**
@@ -228,7 +294,7 @@ public final class Utils {
    * @param e Throwable Exception which represents the error.
    */
   public static void endTestAsKO(String browser, Method method, Throwable e) throws Throwable {
-    ExtentManager.getNode().fail(e);
+    ExtentManager.fail(e);
     screenshot(e.getClass().getSimpleName());
     String err = String.format("[ERROR] %s :: {%s} :: FAILED", method.getName(), browser);
     BaseTest.log.error(err);
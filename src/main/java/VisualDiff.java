@@ -0,0 +1,274 @@
+/**
+ * @file VisualDiff.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Screenshot comparison for visual regression checks.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.util.Map;
+import java.util.Arrays;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.io.IOException;
+import java.awt.Graphics2D;
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @class VisualDiff
+ * @brief Compare screenshots against stored baselines, tile by tile in parallel.
+
+ Images are handled as packed ARGB int arrays. Tiles are compared on a
+ fork-join pool and the comparison stops as soon as the amount of differing
+ pixels exceeds the tolerance. The highlighted diff image is only built on
+ mismatch. Baselines are cached in memory, and screenshots byte-identical to
+ their baseline are accepted without decoding them.
+*/
+public final class VisualDiff {
+  private static final String DIR = "target/report/visual";
+  private static final int TILE = 64;
+  private static final int TILES_PER_TASK = 16;
+  private static final int CHANNEL_THRESHOLD = 16;
+  private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  private static final Map<Path, byte[]> raw = new ConcurrentHashMap<>();
+  private static final Map<Path, Image> baselines = new ConcurrentHashMap<>();
+
+  /**
+   * @brief Decoded image as packed ARGB pixels.
+   */
+  protected static final class Image {
+    protected final int width;
+    protected final int height;
+    protected final int[] pixels;
+
+    private Image(int width, int height, int[] pixels) {
+      this.width = width;
+      this.height = height;
+      this.pixels = pixels;
+    }
+  }
+
+  /**
+   * @brief Result of a comparison.
+   */
+  protected static final class Result {
+    protected final boolean match;
+    protected final double ratio;
+    protected final String baseline;
+    protected final String diff;
+    protected final boolean created;
+
+    private Result(boolean match, double ratio, String baseline, String diff) {
+      this(match, ratio, baseline, diff, false);
+    }
+
+    private Result(boolean match, double ratio, String baseline, String diff, boolean created) {
+      this.match = match;
+      this.ratio = ratio;
+      this.baseline = baseline;
+      this.diff = diff;
+      this.created = created;
+    }
+  }
+
+  /**
+   * @brief Decode a PNG image into packed ARGB pixels.
+   * @param png Image encoded as PNG.
+   * @return Image object.
+   */
+  protected static Image decode(byte[] png) throws IOException {
+    BufferedImage src = ImageIO.read(new ByteArrayInputStream(png));
+    if (src == null) throw new IOException("Not a valid image");
+    BufferedImage img = src;
+    if (src.getType() != BufferedImage.TYPE_INT_ARGB) {
+      img = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g = img.createGraphics();
+      g.drawImage(src, 0, 0, null);
+      g.dispose();
+    }
+    return new Image(img.getWidth(), img.getHeight(), ((DataBufferInt) img.getRaster().getDataBuffer()).getData());
+  }
+
+  /**
+   * @brief Check whether two pixels differ (any channel beyond the threshold).
+   * @param a Packed ARGB pixel.
+   * @param b Packed ARGB pixel.
+   * @return True if different, false otherwise.
+   */
+  private static boolean differs(int a, int b) {
+    if (a == b) return false;
+    return Math.abs(((a >> 16) & 0xff) - ((b >> 16) & 0xff)) > CHANNEL_THRESHOLD
+      || Math.abs(((a >> 8) & 0xff) - ((b >> 8) & 0xff)) > CHANNEL_THRESHOLD
+      || Math.abs((a & 0xff) - (b & 0xff)) > CHANNEL_THRESHOLD;
+  }
+
+  /**
+   * @class Compare
+   * @brief Fork-join task which compares a range of tiles.
+   */
+  private static final class Compare extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Image a, b;
+    private final int from, to, columns;
+    private final long limit;
+    private final AtomicLong count;
+    private final boolean[] mask;
+
+    /**
+     * @brief Create the task.
+     * @param a Baseline image.
+     * @param b Current image (same size as the baseline).
+     * @param from First tile (inclusive).
+     * @param to Last tile (exclusive).
+     * @param limit Differing pixels above which to stop (negative to never stop).
+     * @param count Shared counter of differing pixels.
+     * @param mask Differing pixels flags to fill in (optional).
+     */
+    private Compare(Image a, Image b, int from, int to, long limit, AtomicLong count, boolean[] mask) {
+      this.a = a;
+      this.b = b;
+      this.from = from;
+      this.to = to;
+      this.columns = (a.width + TILE - 1) / TILE;
+      this.limit = limit;
+      this.count = count;
+      this.mask = mask;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > TILES_PER_TASK) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new Compare(a, b, from, mid, limit, count, mask),
+                  new Compare(a, b, mid, to, limit, count, mask));
+        return;
+      }
+      for (int t = from; t < to; t++) {
+        if (limit >= 0 && count.get() > limit) return;
+        int x0 = (t % columns) * TILE, y0 = (t / columns) * TILE;
+        int x1 = Math.min(x0 + TILE, a.width), y1 = Math.min(y0 + TILE, a.height);
+        long found = 0;
+        for (int y = y0; y < y1; y++) {
+          int i = y * a.width + x0, end = y * a.width + x1;
+          for (; i < end; i++) {
+            if (!differs(a.pixels[i], b.pixels[i])) continue;
+            found++;
+            if (mask != null) mask[i] = true;
+          }
+        }
+        if (found > 0) count.addAndGet(found);
+      }
+    }
+  }
+
+  /**
+   * @brief Count the differing pixels of two images of the same size.
+   * @param a Baseline image.
+   * @param b Current image.
+   * @param limit Differing pixels above which to stop early (negative to never stop).
+   * @param mask Differing pixels flags to fill in (optional).
+   * @return Amount of differing pixels (a lower bound if stopped early).
+   */
+  protected static long compare(Image a, Image b, long limit, boolean[] mask) {
+    int tiles = ((a.width + TILE - 1) / TILE) * ((a.height + TILE - 1) / TILE);
+    AtomicLong count = new AtomicLong();
+    pool.invoke(new Compare(a, b, 0, tiles, limit, count, mask));
+    return count.get();
+  }
+
+  /**
+   * @brief Build the diff image: current image faded out with the differing pixels in red.
+   * @param a Baseline image.
+   * @param b Current image.
+   * @return Diff image encoded as PNG.
+   */
+  private static byte[] highlight(Image a, Image b) throws IOException {
+    boolean[] mask = null;
+    if (a.width == b.width && a.height == b.height) {
+      mask = new boolean[b.pixels.length];
+      compare(a, b, -1, mask);
+    }
+    BufferedImage img = new BufferedImage(b.width, b.height, BufferedImage.TYPE_INT_ARGB);
+    int[] out = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    for (int i = 0; i < out.length; i++) {
+      if (mask == null || mask[i]) {
+        out[i] = 0xffff0000;
+        continue;
+      }
+      int p = b.pixels[i];
+      int gray = (((p >> 16) & 0xff) + ((p >> 8) & 0xff) + (p & 0xff)) / 3;
+      gray = 192 + gray / 4;
+      out[i] = 0xff000000 | (gray << 16) | (gray << 8) | gray;
+    }
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(img, "png", png);
+    return png.toByteArray();
+  }
+
+  /**
+   * @brief Compare a screenshot against its baseline (created if missing).
+   * @param name Name of the baseline.
+   * @param browser Name of the browser the screenshot was taken on.
+   * @param png Screenshot encoded as PNG.
+   * @param tolerance Maximum ratio of differing pixels (0.0 to 1.0).
+   * @return Result object.
+   */
+  protected static Result check(String name, String browser, byte[] png, double tolerance) throws IOException {
+    String file = String.format("%s-%s.png", name, browser);
+    Path baseline = Paths.get(ConfigParameters.visual_baselines, file);
+    if (ConfigParameters.visual_update || !Files.exists(baseline)) {
+      Files.createDirectories(baseline.getParent());
+      Files.write(baseline, png);
+      raw.remove(baseline);
+      baselines.remove(baseline);
+      return new Result(true, 0, baseline.toString(), null, true);
+    }
+
+    byte[] bytes = raw.get(baseline);
+    if (bytes == null) {
+      bytes = Files.readAllBytes(baseline);
+      raw.put(baseline, bytes);
+    }
+    if (Arrays.equals(bytes, png)) return new Result(true, 0, baseline.toString(), null);
+    Image current = decode(png);
+    Image expected = baselines.get(baseline);
+    if (expected == null) {
+      expected = decode(bytes);
+      baselines.put(baseline, expected);
+    }
+    long total = (long) current.width * current.height;
+    long limit = (long) Math.floor(total * tolerance);
+    long found = expected.width == current.width && expected.height == current.height
+      ? compare(expected, current, limit, null)
+      : total;
+    if (found <= limit) return new Result(true, (double) found / total, baseline.toString(), null);
+
+    Path diff = Paths.get(DIR, String.format("%s-%s-%d.png", name, browser, System.currentTimeMillis()));
+    Files.createDirectories(diff.getParent());
+    Files.write(diff, highlight(expected, current));
+    return new Result(false, (double) found / total, baseline.toString(), diff.toString());
+  }
+
+  /**
+   * @brief Relative path of a diff image from the report's directory.
+   * @param diff Path of the diff image.
+   * @return Relative path.
+   */
+  protected static String link(String diff) {
+    return String.format("visual/%s", new File(diff).getName());
+  }
+}
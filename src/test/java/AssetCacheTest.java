@@ -0,0 +1,95 @@
+/**
+ * @file AssetCacheTest.java
+ * @author wasym.atieh
+ * @copyright Copyright (C) 2023, 2024 CTTI
+ * @brief Unit tests of the static asset cache.
+ *
+ * This file is part of mat-selenium.
+ */
+
+
+package cat.gencat.mat;
+
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CyclicBarrier;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openqa.selenium.remote.http.Contents;
+import org.openqa.selenium.remote.http.HttpMethod;
+import org.openqa.selenium.remote.http.HttpHandler;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @class AssetCacheTest
+ * @brief Two sessions missing the same asset must leave a usable cache entry.
+ */
+public class AssetCacheTest {
+  private static final String URL = "https://app.example.org/js/app.js";
+  private static final String BODY = "console.log('app');";
+
+  @Test
+  public void sameBodyStoredTwice() throws Exception {
+    Path dir = Files.createTempDirectory("asset-cache");
+    ConfigParameters.app_url = "https://app.example.org/";
+    ConfigParameters.asset_cache_dir = dir.toString();
+
+    // Both requests reach the server before either response is stored
+    CyclicBarrier barrier = new CyclicBarrier(2);
+    AtomicInteger upstream = new AtomicInteger();
+    HttpHandler server = req -> {
+      upstream.incrementAndGet();
+      try { barrier.await(10, TimeUnit.SECONDS); }
+      catch (Exception e) { throw new IllegalStateException(e); }
+      return new HttpResponse()
+        .setHeader("Cache-Control", "max-age=3600")
+        .setContent(Contents.utf8String(BODY));
+    };
+    HttpHandler cached = AssetCache.filter().apply(server);
+
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      Future<HttpResponse> a = pool.submit(() -> cached.execute(new HttpRequest(HttpMethod.GET, URL)));
+      Future<HttpResponse> b = pool.submit(() -> cached.execute(new HttpRequest(HttpMethod.GET, URL)));
+      assertEquals(Contents.string(a.get().getContent(), StandardCharsets.UTF_8), BODY);
+      assertEquals(Contents.string(b.get().getContent(), StandardCharsets.UTF_8), BODY);
+    }
+    finally {
+      pool.shutdown();
+    }
+
+    HttpResponse hit = cached.execute(new HttpRequest(HttpMethod.GET, URL));
+    assertEquals(Contents.string(hit.getContent(), StandardCharsets.UTF_8), BODY);
+    assertEquals(upstream.get(), 2);
+    assertTrue(AssetCache.summary().get("Asset cache").startsWith("1 hits, 2 misses"));
+    try (var blobs = Files.walk(dir.resolve("blobs"))) {
+      assertEquals(blobs.filter(Files::isRegularFile).count(), 1L);
+    }
+
+    // Documents and API calls always reach the server and are not counted
+    AtomicInteger dynamic = new AtomicInteger();
+    HttpHandler api = AssetCache.filter().apply(req -> {
+        dynamic.incrementAndGet();
+        return new HttpResponse()
+          .setHeader("Cache-Control", "max-age=3600")
+          .setContent(Contents.utf8String("{}"));
+      });
+    for (String path : new String[] { "api/users", "api/users", "index.html", "js/app.js.map" }) {
+      api.execute(new HttpRequest(HttpMethod.GET, "https://app.example.org/" + path));
+    }
+    assertEquals(dynamic.get(), 4);
+    assertTrue(AssetCache.summary().get("Asset cache").startsWith("1 hits, 2 misses"));
+
+    AssetCache.close();
+    String index = Files.readString(dir.resolve("index.json"), StandardCharsets.UTF_8);
+    assertTrue(index.contains("app.js"));
+  }
+}